@@ -0,0 +1,56 @@
+-- Esquema equivalente a sql/script.sql para la base de datos embebida (H2 en modo Oracle)
+
+CREATE TABLE CLIENTE (
+	NIF VARCHAR(10) PRIMARY KEY,
+	NOMBRE VARCHAR(50) NOT NULL,
+	APELLIDOS VARCHAR(100) NOT NULL,
+	DIRECCION VARCHAR(100),
+  	CP VARCHAR(5),
+ 	CIUDAD VARCHAR(20)
+);
+
+CREATE TABLE GRUPO (
+	IDGRUPO INTEGER PRIMARY KEY,
+	NOMBRE VARCHAR(50) NOT NULL,
+	ESTILO VARCHAR(20),
+	ACTIVO INTEGER NOT NULL
+);
+
+CREATE TABLE CONCIERTO (
+	IDCONCIERTO INTEGER PRIMARY KEY,
+	NOMBRE VARCHAR(100) NOT NULL,
+	CIUDAD VARCHAR(100) NOT NULL,
+	FECHA TIMESTAMP NOT NULL,
+	TICKETS INTEGER NOT NULL,
+	PRECIO FLOAT NOT NULL,
+	IDGRUPO INTEGER NOT NULL,
+	VERSION INTEGER DEFAULT 0 NOT NULL,
+	FOREIGN KEY (IDGRUPO) REFERENCES GRUPO(IDGRUPO) 
+);
+
+-- Resolución del concierto de un grupo en una fecha (DAOConcierto.findByFechaAndGrupo)
+CREATE INDEX IDX_CONCIERTO_GRUPO_FECHA ON CONCIERTO (IDGRUPO, FECHA);
+
+-- Tickets de un concierto repartidos en fracciones, para que las compras concurrentes de un
+-- concierto muy demandado actualicen filas distintas (DAOConcierto.splitTickets)
+CREATE TABLE CONCIERTO_FRACCION (
+	IDCONCIERTO INTEGER NOT NULL,
+	FRACCION INTEGER NOT NULL,
+	TICKETS INTEGER NOT NULL,
+	PRIMARY KEY (IDCONCIERTO, FRACCION),
+	FOREIGN KEY (IDCONCIERTO) REFERENCES CONCIERTO (IDCONCIERTO)
+);
+
+CREATE TABLE COMPRA (
+	IDCOMPRA INTEGER PRIMARY KEY,
+	NIF VARCHAR(10) NOT NULL,
+	IDCONCIERTO INTEGER NOT NULL,
+	N_TICKETS INTEGER NOT NULL,
+	FOREIGN KEY (NIF) REFERENCES CLIENTE(NIF),
+	FOREIGN KEY (IDCONCIERTO) REFERENCES CONCIERTO (IDCONCIERTO)
+);
+
+-- Borrado de las compras de los conciertos de un grupo (DAOCompra.removeByGrupo)
+CREATE INDEX IDX_COMPRA_CONCIERTO ON COMPRA (IDCONCIERTO);
+
+CREATE SEQUENCE SEQ_COMPRA START WITH 6 INCREMENT BY 50;
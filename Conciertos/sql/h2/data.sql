@@ -0,0 +1,16 @@
+INSERT INTO CLIENTE VALUES ('1111111F', 'Luis', 'Rodriguez Garcia', 'C/Mayor 5', '9999', 'Palencia');
+INSERT INTO CLIENTE VALUES ('7352353T', 'Luis', 'Rodriguez Garcia', 'C/Hueso Roto 15', '9999', 'Palencia');
+INSERT INTO CLIENTE VALUES ('7666832Y', 'Luis', 'Rodriguez Garcia', 'C/Atlantico 12', '3333', 'Burgos');
+
+INSERT INTO GRUPO VALUES (1, 'Los Burning', 'Rock', '1');
+INSERT INTO GRUPO VALUES (2, 'Laura Mancini', 'Romantico', '1');
+
+INSERT INTO CONCIERTO VALUES (1, 'Rock Tardio', 'Madrid', TIMESTAMP '2023-11-01 21:00:00', 100, 25.5, 1, 0);
+INSERT INTO CONCIERTO VALUES (2, 'Gira Balada', 'Madrid', TIMESTAMP '2023-11-01 22:00:00', 100, 35, 2, 0);
+INSERT INTO CONCIERTO VALUES (3, 'Gira Balada', 'Madrid', TIMESTAMP '2023-11-15 22:30:00', 100, 27.5, 2, 0);
+
+INSERT INTO COMPRA VALUES (1, '1111111F', 2, 5);
+INSERT INTO COMPRA VALUES (2, '7352353T', 3, 10);
+INSERT INTO COMPRA VALUES (3, '7666832Y', 1,  3);
+INSERT INTO COMPRA VALUES (4, '7352353T', 1, 3);
+INSERT INTO COMPRA VALUES (5, '1111111F', 1, 10);
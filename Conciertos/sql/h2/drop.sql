@@ -0,0 +1,11 @@
+DROP TABLE IF EXISTS COMPRA;
+
+DROP TABLE IF EXISTS CONCIERTO_FRACCION;
+
+DROP TABLE IF EXISTS CONCIERTO;
+
+DROP TABLE IF EXISTS GRUPO;
+
+DROP TABLE IF EXISTS CLIENTE;
+
+DROP SEQUENCE IF EXISTS SEQ_COMPRA;
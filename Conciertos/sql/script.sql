@@ -1,3 +1,5 @@
+DROP TABLE CONCIERTO_FRACCION CASCADE CONSTRAINTS;
+
 DROP TABLE CONCIERTO CASCADE CONSTRAINTS;
 
 DROP TABLE GRUPO CASCADE CONSTRAINTS;
@@ -6,6 +8,8 @@ DROP TABLE CLIENTE CASCADE CONSTRAINTS;
 
 DROP TABLE COMPRA CASCADE CONSTRAINTS;
 
+DROP SEQUENCE SEQ_COMPRA;
+
 
 CREATE TABLE CLIENTE (
 	NIF VARCHAR(10) PRIMARY KEY,
@@ -31,9 +35,23 @@ CREATE TABLE CONCIERTO (
 	TICKETS INTEGER NOT NULL,
 	PRECIO FLOAT NOT NULL,
 	IDGRUPO INTEGER NOT NULL,
+	VERSION INTEGER DEFAULT 0 NOT NULL,
 	FOREIGN KEY (IDGRUPO) REFERENCES GRUPO(IDGRUPO) 
 );
 
+-- Resolución del concierto de un grupo en una fecha (DAOConcierto.findByFechaAndGrupo)
+CREATE INDEX IDX_CONCIERTO_GRUPO_FECHA ON CONCIERTO (IDGRUPO, FECHA);
+
+-- Tickets de un concierto repartidos en fracciones, para que las compras concurrentes de un
+-- concierto muy demandado actualicen filas distintas (DAOConcierto.splitTickets)
+CREATE TABLE CONCIERTO_FRACCION (
+	IDCONCIERTO INTEGER NOT NULL,
+	FRACCION INTEGER NOT NULL,
+	TICKETS INTEGER NOT NULL,
+	PRIMARY KEY (IDCONCIERTO, FRACCION),
+	FOREIGN KEY (IDCONCIERTO) REFERENCES CONCIERTO (IDCONCIERTO)
+);
+
 
 CREATE TABLE COMPRA (
 	IDCOMPRA INTEGER PRIMARY KEY,
@@ -44,6 +62,12 @@ CREATE TABLE COMPRA (
 	FOREIGN KEY (IDCONCIERTO) REFERENCES CONCIERTO (IDCONCIERTO)
 );
 
+-- Borrado de las compras de los conciertos de un grupo (DAOCompra.removeByGrupo)
+CREATE INDEX IDX_COMPRA_CONCIERTO ON COMPRA (IDCONCIERTO);
+
+-- Identificadores de compra por bloques: el incremento coincide con el allocationSize de Compra
+CREATE SEQUENCE SEQ_COMPRA START WITH 6 INCREMENT BY 50;
+
 INSERT INTO CLIENTE VALUES ('1111111F', 'Luis', 'Rodriguez Garcia', 'C/Mayor 5', '9999', 'Palencia');
 INSERT INTO CLIENTE VALUES ('7352353T', 'Luis', 'Rodriguez Garcia', 'C/Hueso Roto 15', '9999', 'Palencia');
 INSERT INTO CLIENTE VALUES ('7666832Y', 'Luis', 'Rodriguez Garcia', 'C/Atlantico 12', '3333', 'Burgos');
@@ -52,9 +76,9 @@ INSERT INTO GRUPO VALUES (1, 'Los Burning', 'Rock', '1');
 INSERT INTO GRUPO VALUES (2, 'Laura Mancini', 'Romantico', '1');
 
 
-INSERT INTO CONCIERTO VALUES (1, 'Rock Tardio', 'Madrid', TO_TIMESTAMP('01-11-2023 21:00:00', 'DD-MM-YYYY HH24:MI:SS'), 100, 25.5, 1);
-INSERT INTO CONCIERTO VALUES (2, 'Gira Balada', 'Madrid', TO_TIMESTAMP('01-11-2023 22:00:00', 'DD-MM-YYYY HH24:MI:SS'), 100, 35, 2);
-INSERT INTO CONCIERTO VALUES (3, 'Gira Balada', 'Madrid', TO_TIMESTAMP('15-11-2023 22:30:00', 'DD-MM-YYYY HH24:MI:SS'), 100, 27.5, 2);
+INSERT INTO CONCIERTO VALUES (1, 'Rock Tardio', 'Madrid', TO_TIMESTAMP('01-11-2023 21:00:00', 'DD-MM-YYYY HH24:MI:SS'), 100, 25.5, 1, 0);
+INSERT INTO CONCIERTO VALUES (2, 'Gira Balada', 'Madrid', TO_TIMESTAMP('01-11-2023 22:00:00', 'DD-MM-YYYY HH24:MI:SS'), 100, 35, 2, 0);
+INSERT INTO CONCIERTO VALUES (3, 'Gira Balada', 'Madrid', TO_TIMESTAMP('15-11-2023 22:30:00', 'DD-MM-YYYY HH24:MI:SS'), 100, 27.5, 2, 0);
 
 INSERT INTO COMPRA VALUES (1, '1111111F', 2, 5);
 INSERT INTO COMPRA VALUES (2, '7352353T', 3, 10);
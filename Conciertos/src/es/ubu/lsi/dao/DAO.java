@@ -1,5 +1,6 @@
 package es.ubu.lsi.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -21,6 +22,13 @@ public interface DAO<E,K> {
 	 */
 	void persist(E entity);
 
+	/**
+	 * Persist all, flushing and clearing the persistence context in chunks.
+	 * 
+	 * @param entities entities
+	 */
+	void persistAll(Collection<E> entities);
+
 	/**
 	 * Remove.
 	 * 
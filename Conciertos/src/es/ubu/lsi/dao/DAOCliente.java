@@ -1,5 +1,7 @@
 package es.ubu.lsi.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.persistence.Query;
@@ -45,6 +47,25 @@ public class DAOCliente<E,K> extends JpaDAO<Cliente, String> {
 		return null;
 	}
 
+	/**
+	 * Busqueda de varios clientes por nif en la base de datos con consultas IN.
+	 * 
+	 * @param nifs NIFs de los clientes
+	 * @return Clientes encontrados, sin orden concreto
+	 */
+	public List<Cliente> findByNifs(Collection<String> nifs) {
+		return timed("findByNifs", () -> {
+			List<Cliente> clientes = new ArrayList<>();
+			for (List<String> trozo : partition(nifs)) {
+				clientes.addAll(getEntityManager().createQuery("select c "
+						+ "from Cliente c "
+						+ "where c.nif in :nifs", Cliente.class)
+						.setParameter("nifs", trozo).getResultList());
+			}
+			return clientes;
+		});
+	}
+
 	/**
 	 * Redefinición del método findAll. Busca a todos los clientes en la base de datos.
 	 * 
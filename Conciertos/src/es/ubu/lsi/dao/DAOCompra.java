@@ -1,10 +1,16 @@
 package es.ubu.lsi.dao;
 
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import org.hibernate.Session;
+
 import es.ubu.lsi.model.conciertos.*;
 import es.ubu.lsi.service.conciertos.IncidentException;
 
@@ -18,6 +24,9 @@ import es.ubu.lsi.service.conciertos.IncidentException;
  */
 public class DAOCompra<E, K> extends JpaDAO<Compra, Integer> {
 
+	/** PKs de cada valor de SEQ_COMPRA: su INCREMENT BY y el allocationSize de Compra. */
+	public static final int ID_BLOCK_SIZE = 50;
+
 	/**
 	 * Constructor de la clase DAOCompra.
 	 * 
@@ -47,37 +56,96 @@ public class DAOCompra<E, K> extends JpaDAO<Compra, Integer> {
 	}
 
 	/**
-	 * Devuelve el siguiente idcompra a usar realizando una busqueda en la base de datos del campo idcompra más alto e incrementandolo en una unidad. 
-	 * 
-	 * 
-	 * @return Siguiente idcompra
-	 */
-	public int findNextId() {
-		Compra compra = getEntityManager().createQuery("select c" + " from Compra c " + "where c.idcompra = "
-				+ "(select max(c2.idcompra) " + "from Compra c2)", Compra.class).getSingleResult();
-		int currentId = compra.getIdcompra();
-
-		return currentId + 1;
-	}
-
-	/**
-	 * Inserción de una fila en la tabla compra en la base de datos
+	 * Inserción de una fila en la tabla compra en la base de datos.
+	 * La PK la asigna el generador de secuencia de la entidad al hacerla persistente.
 	 * 
-	 * @param idCompra PK de la compra
 	 * @param cliente Cliente asociado a la compra
 	 * @param concierto Concierto asociado a la compra.
 	 * @param tickets Tickets comprados en la transacción
 	 * @param compra Entidad compra a insertar en la base de datos
 	 */
-	public void insertCompra(int idCompra, Cliente cliente, Concierto concierto, int tickets, Compra compra) {
+	public void insertCompra(Cliente cliente, Concierto concierto, int tickets, Compra compra) {
 
-		compra.setIdcompra(idCompra);
 		compra.setCliente(cliente);
 		compra.setConcierto(concierto);
 		compra.setNTickets(tickets);
 
 	}
 
+	/**
+	 * Reserva un bloque de PKs de compra de la secuencia SEQ_COMPRA, con la misma interpretación
+	 * (pooled-lo) que el generador de la entidad, de modo que no se solapan con las suyas.
+	 * 
+	 * @return Primera PK del bloque; el bloque son las {@link #ID_BLOCK_SIZE} siguientes
+	 */
+	public int nextIdBlock() {
+		return timed("nextIdBlock", () -> ((Number) getEntityManager()
+				.createNativeQuery("select SEQ_COMPRA.nextval from dual").getSingleResult()).intValue());
+	}
+
+	/**
+	 * Busqueda de las compras pendientes que no están en la base de datos, por su PK. Insertando
+	 * solo estas se puede repetir la escritura de las mismas compras (por ejemplo al reproducir
+	 * el diario tras una caída) sin duplicarlas.
+	 * 
+	 * @param compras Compras pendientes con su PK asignada
+	 * @return Compras que no existen, en el mismo orden y sin PKs repetidas
+	 */
+	public List<CompraPendiente> findAbsent(List<CompraPendiente> compras) {
+		return timed("findAbsent", () -> {
+			List<Integer> ids = new ArrayList<>(compras.size());
+			for (CompraPendiente compra : compras) {
+				ids.add(compra.getIdcompra());
+			}
+			Set<Integer> existentes = new HashSet<>();
+			for (List<Integer> trozo : partition(ids)) {
+				existentes.addAll(getEntityManager()
+						.createQuery("select cp.idcompra from Compra cp where cp.idcompra in :ids", Integer.class)
+						.setParameter("ids", trozo).getResultList());
+			}
+			List<CompraPendiente> nuevas = new ArrayList<>();
+			for (CompraPendiente compra : compras) {
+				if (existentes.add(compra.getIdcompra())) {
+					nuevas.add(compra);
+				}
+			}
+			return nuevas;
+		});
+	}
+
+	/**
+	 * Inserta compras pendientes con lotes JDBC, sin comprobar si ya existen.
+	 * No pasa por el contexto de persistencia.
+	 * 
+	 * @param compras Compras pendientes con su PK asignada
+	 */
+	public void insertAll(List<CompraPendiente> compras) {
+		timed("insertAll", () -> {
+			int lote = chunkSize();
+			getEntityManager().unwrap(Session.class).doWork(con -> {
+				try (PreparedStatement ps = con
+						.prepareStatement("INSERT INTO COMPRA (IDCOMPRA, NIF, IDCONCIERTO, N_TICKETS) VALUES (?, ?, ?, ?)")) {
+					int pendientes = 0;
+					for (CompraPendiente compra : compras) {
+						ps.setInt(1, compra.getIdcompra());
+						ps.setString(2, compra.getNif());
+						ps.setInt(3, compra.getIdconcierto());
+						ps.setInt(4, compra.getTickets());
+						ps.addBatch();
+						if (++pendientes == lote) {
+							ps.executeBatch();
+							pendientes = 0;
+						}
+					}
+					if (pendientes > 0) {
+						ps.executeBatch();
+					}
+				}
+			});
+			return null;
+		});
+	}
+
 	/**
 	 * Busqueda de todas las compras para conciertos de un mismo grupo en la base de datos
 	 * 
@@ -132,8 +200,49 @@ public class DAOCompra<E, K> extends JpaDAO<Compra, Integer> {
 	 * 
 	 * @param concierto Concierto del que se quieren eliminar todas las compras.
 	 */
-	public void removeByConcierto(Concierto concierto) {		
-		getEntityManager().createQuery("delete from Compra c where c.concierto.idconcierto = ?1").setParameter(1, concierto.getIdconcierto()).executeUpdate();
+	public void removeByConcierto(Concierto concierto) {
+		timed("removeByConcierto", () -> {
+			getEntityManager().createQuery("delete from Compra c where c.concierto.idconcierto = ?1").setParameter(1, concierto.getIdconcierto()).executeUpdate();
+			return null;
+		});
+	}
+
+	/**
+	 * Elimina todas las compras de los conciertos de un grupo con una única sentencia.
+	 * Realiza la operación contra la base de datos sin cargar las compras, por lo que no actualiza
+	 * las entidades ya cargadas en el contexto de persistencia.
+	 * 
+	 * @param grupo PK del grupo
+	 * @return Número de compras eliminadas
+	 */
+	public int removeByGrupo(int grupo) {
+		return timed("removeByGrupo", () -> getEntityManager().createQuery("delete from Compra cp "
+				+ "where cp.concierto.idconcierto in "
+				+ "(select c.idconcierto from Concierto c where c.grupo.idgrupo = :idGrupo)")
+				.setParameter("idGrupo", grupo).executeUpdate());
+	}
+
+	/**
+	 * Elimina como máximo un número dado de compras de los conciertos de un grupo, para
+	 * purgar un grupo grande en transacciones cortas.
+	 * 
+	 * @param grupo PK del grupo
+	 * @param maximo Número máximo de compras a eliminar
+	 * @return Número de compras eliminadas, 0 si ya no quedan
+	 */
+	public int removeByGrupo(int grupo, int maximo) {
+		return timed("removeByGrupoChunk", () -> {
+			List<Integer> ids = getEntityManager().createQuery("select cp.idcompra "
+					+ "from Compra cp "
+					+ "where cp.concierto.grupo.idgrupo = :idGrupo", Integer.class)
+					.setParameter("idGrupo", grupo).setMaxResults(maximo).getResultList();
+			int eliminadas = 0;
+			for (List<Integer> trozo : partition(ids)) {
+				eliminadas += getEntityManager().createQuery("delete from Compra cp where cp.idcompra in :ids")
+						.setParameter("ids", trozo).executeUpdate();
+			}
+			return eliminadas;
+		});
 	}
 
 }
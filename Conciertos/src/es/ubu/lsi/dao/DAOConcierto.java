@@ -1,12 +1,20 @@
 package es.ubu.lsi.dao;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
 import javax.persistence.Query;
 import javax.persistence.TemporalType;
 import es.ubu.lsi.model.conciertos.Concierto;
+import es.ubu.lsi.model.conciertos.FraccionTickets;
 import es.ubu.lsi.service.conciertos.IncidentException;
 
 /**
@@ -19,6 +27,8 @@ import es.ubu.lsi.service.conciertos.IncidentException;
  */
 public class DAOConcierto<E, K> extends JpaDAO<Concierto, Integer> {
 
+	/** Si el concierto del último {@link #decrementTickets(int, int)} tiene sus tickets repartidos en fracciones. */
+	private boolean repartido;
 	
 	/**
 	 * Constructor de la clase DAOConcierto
@@ -30,25 +40,69 @@ public class DAOConcierto<E, K> extends JpaDAO<Concierto, Integer> {
 	}
 
 	/**
-	 * Busqueda de conciertos para un grupo y una fecha determinados en la base de datos.
+	 * Busqueda de conciertos para un grupo y una fecha determinados.
+	 * Si el concierto ya está en el índice en memoria se recupera por su PK; si no,
+	 * se consulta la base de datos y se añade al índice.
 	 * 
 	 * @param fecha Fecha del concierto
 	 * @param idGrupo PK del grupo
 	 * @return Lista de conciertos
 	 * @throws IncidentException
 	 */
-	// @SuppressWarnings("unchecked")
 	public List<Concierto> findByFechaAndGrupo(Date fecha, int idGrupo) throws IncidentException {
+		return timed("findByFechaAndGrupo", () -> {
+			IndiceConciertos indice = IndiceConciertos.getInstance();
+			Integer idConcierto = indice.buscar(idGrupo, fecha);
+			if (idConcierto != null) {
+				Concierto concierto = findById(idConcierto);
+				if (concierto != null && concierto.getGrupo().getIdgrupo() == idGrupo
+						&& concierto.getFecha().getTime() == fecha.getTime()) {
+					return Collections.singletonList(concierto);
+				}
+				indice.invalidarConcierto(idConcierto); // Borrado o modificado fuera de este proceso
+			}
 
-		List<Concierto> concierto = getEntityManager()
-				.createQuery("select c "
-						+ "from Concierto c "
-						+ "where c.fecha = ?1 "
-						+ "and c.grupo.idgrupo = ?2", Concierto.class)
-				.setParameter(1, fecha, TemporalType.TIMESTAMP).setParameter(2, idGrupo).getResultList();
-		return concierto;
+			List<Concierto> concierto = getEntityManager()
+					.createQuery("select c "
+							+ "from Concierto c "
+							+ "where c.fecha = ?1 "
+							+ "and c.grupo.idgrupo = ?2", Concierto.class)
+					.setParameter(1, fecha, TemporalType.TIMESTAMP).setParameter(2, idGrupo).getResultList();
+			if (concierto.size() == 1) {
+				indice.registrar(idGrupo, fecha, concierto.get(0).getIdconcierto());
+			}
+			return concierto;
+		});
 	}
-			
+
+	/**
+	 * Busqueda de los conciertos de varios grupos en varias fechas, bloqueando las filas
+	 * encontradas hasta el final de la transacción. Devuelve todas las combinaciones de
+	 * grupo y fecha, por lo que el llamante debe emparejar cada concierto con su pedido.
+	 * Las filas se bloquean en orden de PK para evitar interbloqueos entre lotes.
+	 * 
+	 * @param idGrupos PKs de los grupos
+	 * @param fechas Fechas de los conciertos
+	 * @return Lista de conciertos ordenada por PK
+	 */
+	public List<Concierto> findByGruposAndFechasForUpdate(Collection<Integer> idGrupos, Collection<Date> fechas) {
+		return timed("findByGruposAndFechasForUpdate", () -> {
+			List<Concierto> conciertos = new ArrayList<>();
+			for (List<Integer> grupos : partition(idGrupos)) {
+				for (List<Date> trozoFechas : partition(fechas)) {
+					conciertos.addAll(getEntityManager().createQuery("select c "
+							+ "from Concierto c "
+							+ "where c.grupo.idgrupo in :idGrupos "
+							+ "and c.fecha in :fechas "
+							+ "order by c.idconcierto", Concierto.class)
+							.setParameter("idGrupos", grupos).setParameter("fechas", trozoFechas)
+							.setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList());
+				}
+			}
+			return conciertos;
+		});
+	}
+
 	/**
 	 * Busqueda de conciertos asociados a un grupo en la base de datos.
 	 * 
@@ -57,20 +111,326 @@ public class DAOConcierto<E, K> extends JpaDAO<Concierto, Integer> {
 	 */
 	@SuppressWarnings("unchecked")
 	public List<Concierto> findByGrupo(int grupo) {
-		return getEntityManager().createQuery("select c "
+		return timed("findByGrupo", () -> getEntityManager().createQuery("select c "
 				+ "from Concierto c "
 				+ "where c.grupo.idgrupo = :idGrupo")
-		.setParameter("idGrupo", grupo).getResultList();		
+		.setParameter("idGrupo", grupo).getResultList());
+	}
+
+	/**
+	 * Decrementa los tickets de un concierto solo si quedan suficientes, en una única sentencia.
+	 * La comprobación y la actualización las hace la base de datos de forma atómica, por lo que
+	 * dos compras concurrentes no pueden vender más tickets de los disponibles.
+	 * Incrementa la versión del concierto para que las escrituras optimistas concurrentes
+	 * sobre la entidad detecten el cambio. No actualiza las entidades ya cargadas en el
+	 * contexto de persistencia.
+	 * Si el concierto tiene sus tickets repartidos en fracciones (ver {@link #splitTickets(int, int)})
+	 * los descuenta de ellas, sin bloquear la fila del concierto, e {@link #isRepartido()} lo indica.
+	 * 
+	 * @param idConcierto PK del concierto
+	 * @param tickets Cantidad de tickets a descontar
+	 * @return Número de filas modificadas, 0 si no hay tickets suficientes o no existe el concierto
+	 */
+	public int decrementTickets(int idConcierto, int tickets) {
+		return timed("decrementTickets", () -> {
+			int filas = getEntityManager().createQuery("update Concierto c "
+					+ "set c.tickets = c.tickets - :tickets, c.version = c.version + 1 "
+					+ "where c.idconcierto = :idConcierto "
+					+ "and c.tickets >= :tickets")
+			.setParameter("tickets", tickets).setParameter("idConcierto", idConcierto).executeUpdate();
+			repartido = false;
+			return filas > 0 ? filas : decrementFracciones(idConcierto, tickets);
+		});
+	}
+
+	/**
+	 * Indica si el concierto del último {@link #decrementTickets(int, int)} tiene sus tickets
+	 * repartidos en fracciones, según las filas de CONCIERTO_FRACCION leídas en esta transacción.
+	 * Si lo está, su columna TICKETS no da los tickets disponibles.
+	 * 
+	 * @return true si el concierto tiene fracciones
+	 */
+	public boolean isRepartido() {
+		return repartido;
+	}
+
+	/**
+	 * Descuenta tickets de las fracciones de un concierto. Prueba primero una fracción al azar
+	 * entre las que tienen tickets suficientes, para repartir los bloqueos entre las filas, y
+	 * después las demás; si ninguna tiene suficientes bloquea todas en orden y los descuenta
+	 * de varias empezando por la primera.
+	 * 
+	 * @param idConcierto PK del concierto
+	 * @param tickets Cantidad de tickets a descontar
+	 * @return 1 si se han descontado, 0 si no hay tickets suficientes o el concierto no tiene fracciones
+	 */
+	private int decrementFracciones(int idConcierto, int tickets) {
+		List<Integer> candidatas = getEntityManager().createQuery("select f.id.fraccion "
+				+ "from FraccionTickets f "
+				+ "where f.id.idconcierto = :idConcierto "
+				+ "and f.tickets >= :tickets", Integer.class)
+				.setParameter("idConcierto", idConcierto).setParameter("tickets", tickets).getResultList();
+		repartido = !candidatas.isEmpty();
+		int inicio = candidatas.isEmpty() ? 0 : ThreadLocalRandom.current().nextInt(candidatas.size());
+		for (int i = 0; i < candidatas.size(); i++) {
+			if (restarFraccion(idConcierto, candidatas.get((inicio + i) % candidatas.size()), tickets, true) > 0) {
+				return 1;
+			}
+		}
+
+		// Ninguna fracción tiene suficientes: se reparte el descuento entre varias
+		List<FraccionTickets> fracciones = getEntityManager().createQuery("select f "
+				+ "from FraccionTickets f "
+				+ "where f.id.idconcierto = :idConcierto "
+				+ "order by f.id.fraccion", FraccionTickets.class)
+				.setParameter("idConcierto", idConcierto).setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList();
+		repartido = !fracciones.isEmpty();
+		int total = 0;
+		for (FraccionTickets fraccion : fracciones) {
+			total += fraccion.getTickets();
+		}
+		if (total < tickets) {
+			return 0;
+		}
+		int pendientes = tickets;
+		for (FraccionTickets fraccion : fracciones) {
+			int parte = Math.min(pendientes, fraccion.getTickets());
+			if (parte > 0) {
+				restarFraccion(idConcierto, fraccion.getId().getFraccion(), parte, false);
+				pendientes -= parte;
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Descuenta tickets de una fracción.
+	 * 
+	 * @param idConcierto PK del concierto
+	 * @param fraccion Número de fracción
+	 * @param tickets Cantidad de tickets a descontar
+	 * @param condicional Si solo se descuentan cuando hay suficientes
+	 * @return Número de filas modificadas
+	 */
+	private int restarFraccion(int idConcierto, int fraccion, int tickets, boolean condicional) {
+		return getEntityManager().createQuery("update FraccionTickets f "
+				+ "set f.tickets = f.tickets - :tickets "
+				+ "where f.id.idconcierto = :idConcierto "
+				+ "and f.id.fraccion = :fraccion"
+				+ (condicional ? " and f.tickets >= :tickets" : ""))
+		.setParameter("tickets", tickets).setParameter("idConcierto", idConcierto)
+		.setParameter("fraccion", fraccion).executeUpdate();
+	}
+
+	/**
+	 * Reparte los tickets de un concierto en fracciones, filas de CONCIERTO_FRACCION que las compras
+	 * concurrentes actualizan por separado, y deja a 0 la columna TICKETS. Si ya estaba repartido
+	 * vuelve a repartir el total; con 0 fracciones devuelve todos los tickets a la columna.
+	 * Bloquea el concierto y sus fracciones hasta el final de la transacción.
+	 * 
+	 * @param idConcierto PK del concierto
+	 * @param fracciones Número de fracciones, 0 para deshacer el reparto
+	 * @return Tickets repartidos, o -1 si no existe el concierto
+	 */
+	public int splitTickets(int idConcierto, int fracciones) {
+		return timed("splitTickets", () -> {
+			List<Integer> columna = getEntityManager().createQuery("select c.tickets "
+					+ "from Concierto c "
+					+ "where c.idconcierto = :idConcierto", Integer.class)
+					.setParameter("idConcierto", idConcierto).setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList();
+			if (columna.isEmpty()) {
+				return -1;
+			}
+			int total = columna.get(0);
+			for (FraccionTickets fraccion : getEntityManager().createQuery("select f "
+					+ "from FraccionTickets f "
+					+ "where f.id.idconcierto = :idConcierto "
+					+ "order by f.id.fraccion", FraccionTickets.class)
+					.setParameter("idConcierto", idConcierto).setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList()) {
+				total += fraccion.getTickets();
+				getEntityManager().detach(fraccion); // Las nuevas fracciones reutilizan sus PK
+			}
+			getEntityManager().createQuery("delete from FraccionTickets f where f.id.idconcierto = :idConcierto")
+			.setParameter("idConcierto", idConcierto).executeUpdate();
+			for (int i = 0; i < fracciones; i++) {
+				// El resto de la división va a las primeras fracciones
+				getEntityManager().persist(new FraccionTickets(idConcierto, i, total / fracciones + (i < total % fracciones ? 1 : 0)));
+			}
+			getEntityManager().flush();
+			getEntityManager().createQuery("update Concierto c "
+					+ "set c.tickets = :tickets, c.version = c.version + 1 "
+					+ "where c.idconcierto = :idConcierto")
+			.setParameter("tickets", fracciones > 0 ? 0 : total).setParameter("idConcierto", idConcierto).executeUpdate();
+			return total;
+		});
 	}
 
 	/**
-	 *Actualiza los tickets de un concierto.
+	 * Bloquea las fracciones de tickets de varios conciertos hasta el final de la transacción
+	 * y devuelve sus tickets, que ya no pueden cambiar.
 	 * 
-	 * @param tickets Nueva cantidad de tickets
-	 * @param concierto Concierto al que se le modifica el número de tickets
+	 * @param ids PKs de los conciertos
+	 * @return Tickets repartidos en fracciones de cada concierto que las tiene
 	 */
-	public void updateTickets(int tickets, Concierto concierto) {
-		concierto.setTickets(tickets);
+	public Map<Integer, Integer> lockFracciones(Collection<Integer> ids) {
+		return timed("lockFracciones", () -> {
+			Map<Integer, Integer> tickets = new HashMap<>();
+			for (List<Integer> trozo : partition(ids)) {
+				for (FraccionTickets fraccion : getEntityManager().createQuery("select f "
+						+ "from FraccionTickets f "
+						+ "where f.id.idconcierto in :ids "
+						+ "order by f.id.idconcierto, f.id.fraccion", FraccionTickets.class)
+						.setParameter("ids", trozo).setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList()) {
+					tickets.merge(fraccion.getId().getIdconcierto(), fraccion.getTickets(), Integer::sum);
+				}
+			}
+			return tickets;
+		});
+	}
+
+	/**
+	 * Bloquea en una única sentencia todos los conciertos de un grupo incrementando su versión,
+	 * de forma que las compras concurrentes sobre ellos esperan o fallan hasta que termine
+	 * la transacción. No actualiza las entidades ya cargadas en el contexto de persistencia.
+	 * 
+	 * @param grupo PK del grupo
+	 * @return Número de conciertos bloqueados
+	 */
+	public int lockByGrupo(int grupo) {
+		return timed("lockByGrupo", () -> {
+			int conciertos = getEntityManager().createQuery("update Concierto c "
+					+ "set c.version = c.version + 1 "
+					+ "where c.grupo.idgrupo = :idGrupo")
+			.setParameter("idGrupo", grupo).executeUpdate();
+			// Las compras de conciertos repartidos solo bloquean sus fracciones
+			getEntityManager().createQuery("update FraccionTickets f "
+					+ "set f.tickets = f.tickets "
+					+ "where f.id.idconcierto in "
+					+ "(select c.idconcierto from Concierto c where c.grupo.idgrupo = :idGrupo)")
+			.setParameter("idGrupo", grupo).executeUpdate();
+			return conciertos;
+		});
+	}
+
+	/**
+	 * Elimina todos los conciertos de un grupo con una única sentencia. Sus compras se tienen
+	 * que haber eliminado antes. No actualiza las entidades ya cargadas en el contexto de persistencia.
+	 * 
+	 * @param grupo PK del grupo
+	 * @return Número de conciertos eliminados
+	 */
+	public int removeByGrupo(int grupo) {
+		return timed("removeByGrupo", () -> {
+			getEntityManager().createQuery("delete from FraccionTickets f "
+					+ "where f.id.idconcierto in "
+					+ "(select c.idconcierto from Concierto c where c.grupo.idgrupo = :idGrupo)")
+			.setParameter("idGrupo", grupo).executeUpdate();
+			return getEntityManager().createQuery("delete from Concierto c "
+					+ "where c.grupo.idgrupo = :idGrupo")
+			.setParameter("idGrupo", grupo).executeUpdate();
+		});
+	}
+
+	/**
+	 * Elimina como máximo un número dado de conciertos de un grupo que ya no tienen compras,
+	 * para purgar un grupo grande en transacciones cortas.
+	 * 
+	 * @param grupo PK del grupo
+	 * @param maximo Número máximo de conciertos a eliminar
+	 * @return Número de conciertos eliminados, 0 si no queda ninguno sin compras
+	 */
+	public int removeByGrupo(int grupo, int maximo) {
+		return timed("removeByGrupoChunk", () -> {
+			List<Integer> ids = getEntityManager().createQuery("select c.idconcierto "
+					+ "from Concierto c "
+					+ "where c.grupo.idgrupo = :idGrupo "
+					+ "and not exists (select cp.idcompra from Compra cp where cp.concierto = c)", Integer.class)
+					.setParameter("idGrupo", grupo).setMaxResults(maximo).getResultList();
+			int eliminados = 0;
+			for (List<Integer> trozo : partition(ids)) {
+				getEntityManager().createQuery("delete from FraccionTickets f where f.id.idconcierto in :ids")
+						.setParameter("ids", trozo).executeUpdate();
+				eliminados += getEntityManager().createQuery("delete from Concierto c where c.idconcierto in :ids")
+						.setParameter("ids", trozo).executeUpdate();
+			}
+			return eliminados;
+		});
+	}
+
+	/**
+	 * Busqueda de los tickets disponibles de varios conciertos, incluidos los repartidos en
+	 * fracciones, sin cargar las entidades. Usa una consulta para la columna TICKETS y otra
+	 * para las fracciones.
+	 * 
+	 * @param ids PKs de los conciertos
+	 * @return Tickets de cada concierto encontrado por su PK
+	 */
+	public Map<Integer, Integer> findTickets(Collection<Integer> ids) {
+		return timed("findTickets", () -> {
+			Map<Integer, Integer> tickets = new HashMap<>();
+			for (List<Integer> trozo : partition(ids)) {
+				for (Object[] fila : getEntityManager().createQuery("select c.idconcierto, c.tickets "
+						+ "from Concierto c "
+						+ "where c.idconcierto in :ids", Object[].class)
+						.setParameter("ids", trozo).getResultList()) {
+					tickets.put((Integer) fila[0], ((Number) fila[1]).intValue());
+				}
+			}
+			for (Map.Entry<Integer, Integer> fracciones : findTicketsFracciones(tickets.keySet()).entrySet()) {
+				tickets.merge(fracciones.getKey(), fracciones.getValue(), Integer::sum);
+			}
+			return tickets;
+		});
+	}
+
+	/**
+	 * Busqueda de los tickets repartidos en fracciones de varios conciertos, con una consulta
+	 * agrupada y sin bloquear.
+	 * 
+	 * @param ids PKs de los conciertos
+	 * @return Tickets repartidos de cada concierto que tiene fracciones
+	 */
+	public Map<Integer, Integer> findTicketsFracciones(Collection<Integer> ids) {
+		return timed("findTicketsFracciones", () -> {
+			Map<Integer, Integer> tickets = new HashMap<>();
+			for (List<Integer> trozo : partition(ids)) {
+				for (Object[] fila : getEntityManager().createQuery("select f.id.idconcierto, sum(f.tickets) "
+						+ "from FraccionTickets f "
+						+ "where f.id.idconcierto in :ids "
+						+ "group by f.id.idconcierto", Object[].class)
+						.setParameter("ids", trozo).getResultList()) {
+					tickets.put((Integer) fila[0], ((Number) fila[1]).intValue());
+				}
+			}
+			return tickets;
+		});
+	}
+
+	/**
+	 * Busqueda de los tickets disponibles de varios conciertos, incluidos los repartidos en
+	 * fracciones, bloqueando los conciertos y después sus fracciones hasta el final de la
+	 * transacción. Espera a las transacciones que ya han descontado tickets de ellos.
+	 * 
+	 * @param ids PKs de los conciertos
+	 * @return Tickets de cada concierto encontrado por su PK
+	 */
+	public Map<Integer, Integer> findTicketsForUpdate(Collection<Integer> ids) {
+		return timed("findTicketsForUpdate", () -> {
+			Map<Integer, Integer> tickets = new HashMap<>();
+			for (List<Integer> trozo : partition(ids)) {
+				for (Object[] fila : getEntityManager().createQuery("select c.idconcierto, c.tickets "
+						+ "from Concierto c "
+						+ "where c.idconcierto in :ids "
+						+ "order by c.idconcierto", Object[].class)
+						.setParameter("ids", trozo).setLockMode(LockModeType.PESSIMISTIC_WRITE).getResultList()) {
+					tickets.put((Integer) fila[0], ((Number) fila[1]).intValue());
+				}
+			}
+			for (Map.Entry<Integer, Integer> fracciones : lockFracciones(tickets.keySet()).entrySet()) {
+				tickets.merge(fracciones.getKey(), fracciones.getValue(), Integer::sum);
+			}
+			return tickets;
+		});
 	}
 
 	/**
@@ -1,11 +1,21 @@
 package es.ubu.lsi.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import es.ubu.lsi.model.conciertos.Concierto;
 import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.model.conciertos.ResumenComprador;
+import es.ubu.lsi.model.conciertos.ResumenConcierto;
+import es.ubu.lsi.model.conciertos.ResumenGrupo;
 
 /**
  * Clase que implementa el patrón DAO para acceder a los datos de la tabla concierto.
@@ -17,6 +27,9 @@ import es.ubu.lsi.model.conciertos.Grupo;
  */
 public class DAOGrupo<E, K> extends JpaDAO<Grupo, Integer> {
 
+	/** Pista para que el distinct de las consultas con fetch join se aplique solo en memoria. */
+	private static final String SIN_DISTINCT_SQL = "hibernate.query.passDistinctThrough";
+
 	/**
 	 * Constructor de la clase DAOGrupo
 	 * 
@@ -37,6 +50,54 @@ public class DAOGrupo<E, K> extends JpaDAO<Grupo, Integer> {
 		}
 	}
 	
+	/**
+	 * Pone a 0 el estado activo de un grupo con una única sentencia, sin cargarlo.
+	 * No actualiza la entidad si ya está cargada en el contexto de persistencia.
+	 * 
+	 * @param grupo PK del grupo
+	 * @return 1 si el grupo existe, 0 si no
+	 */
+	public int desactivarGrupo(int grupo) {
+		return timed("desactivarGrupo", () -> getEntityManager().createQuery("update Grupo g "
+				+ "set g.activo = 0 "
+				+ "where g.idgrupo = :idGrupo")
+				.setParameter("idGrupo", grupo).executeUpdate());
+	}
+
+	/**
+	 * Busqueda de los grupos desactivados que todavía tienen conciertos, es decir, cuya purga
+	 * no ha terminado.
+	 * 
+	 * @return PKs de los grupos ordenadas
+	 */
+	public List<Integer> findIdsPendientesDePurga() {
+		return timed("findIdsPendientesDePurga", () -> getEntityManager().createQuery("select g.idgrupo "
+				+ "from Grupo g "
+				+ "where g.activo = 0 "
+				+ "and exists (select c.idconcierto from Concierto c where c.grupo = g) "
+				+ "order by g.idgrupo", Integer.class)
+				.getResultList());
+	}
+
+	/**
+	 * Busqueda de varios grupos por PK en la base de datos con consultas IN.
+	 * 
+	 * @param ids PKs de los grupos
+	 * @return Grupos encontrados, sin orden concreto
+	 */
+	public List<Grupo> findByIds(Collection<Integer> ids) {
+		return timed("findByIds", () -> {
+			List<Grupo> grupos = new ArrayList<>();
+			for (List<Integer> trozo : partition(ids)) {
+				grupos.addAll(getEntityManager().createQuery("select g "
+						+ "from Grupo g "
+						+ "where g.idgrupo in :ids", Grupo.class)
+						.setParameter("ids", trozo).getResultList());
+			}
+			return grupos;
+		});
+	}
+
 	/**
 	 * Busqueda de todos los grupos y su información asociada en la base de datos.
 	 * 
@@ -45,10 +106,200 @@ public class DAOGrupo<E, K> extends JpaDAO<Grupo, Integer> {
 	 * @return Lista de grupos
 	 */
 	public List<Grupo> consultar(String nombreGrafo,String pista ) {
-        return getEntityManager().createNamedQuery("Grupo.findAll", Grupo.class)
-                .setHint(pista, getEntityManager().getEntityGraph(nombreGrafo))
-                .getResultList();
-    }
+		return timed("consultarGrafo", () -> getEntityManager().createNamedQuery("Grupo.findAll", Grupo.class)
+				.setHint(pista, getEntityManager().getEntityGraph(nombreGrafo))
+				.getResultList());
+	}
+
+	/**
+	 * Busqueda paginada por clave de los identificadores de grupo. Devuelve los siguientes
+	 * a un identificador dado en orden, de forma que cada página se lee por el índice de la PK
+	 * sin recorrer las anteriores.
+	 * 
+	 * @param desdeIdGrupo Último identificador de la página anterior (exclusivo), 0 para la primera
+	 * @param tamPagina Número máximo de identificadores
+	 * @return Identificadores ordenados
+	 */
+	public List<Integer> findIdsDesde(int desdeIdGrupo, int tamPagina) {
+		return timed("findIdsDesde", () -> getEntityManager().createQuery("select g.idgrupo "
+				+ "from Grupo g "
+				+ "where g.idgrupo > :desde "
+				+ "order by g.idgrupo", Integer.class)
+				.setParameter("desde", desdeIdGrupo)
+				.setMaxResults(tamPagina)
+				.getResultList());
+	}
+
+	/**
+	 * Busqueda de varios grupos y su información asociada según un grafo de entidades.
+	 * Los ids se buscan primero con {@link #findIdsDesde(int, int)}: limitar directamente la consulta
+	 * con el grafo haría que Hibernate paginase en memoria. Se consultan en bloques de como mucho
+	 * {@link #MAX_IN_VALUES} ids, el límite de una lista IN en Oracle.
+	 * 
+	 * @param ids PKs de los grupos
+	 * @param nombreGrafo Grafo de entidades
+	 * @param pista Pista del grafo
+	 * @return Lista de grupos ordenada por PK
+	 */
+	public List<Grupo> consultar(Collection<Integer> ids, String nombreGrafo, String pista) {
+		return timed("consultarGrafo", () -> {
+			List<Grupo> grupos = new ArrayList<>();
+			for (List<Integer> trozo : partition(ids)) {
+				grupos.addAll(getEntityManager().createQuery("select distinct g "
+						+ "from Grupo g "
+						+ "where g.idgrupo in :ids", Grupo.class)
+						.setParameter("ids", trozo)
+						.setHint(pista, getEntityManager().getEntityGraph(nombreGrafo))
+						.setHint(SIN_DISTINCT_SQL, false)
+						.getResultList());
+			}
+			grupos.sort(Comparator.comparingInt(Grupo::getIdgrupo));
+			return grupos;
+		});
+	}
+
+	/**
+	 * Busqueda de todos los grupos y su información asociada con una consulta por nivel
+	 * (ver {@link EstrategiaCarga#POR_NIVELES}).
+	 * 
+	 * @return Lista de grupos ordenada por PK
+	 */
+	public List<Grupo> consultarPorNiveles() {
+		return timed("consultarPorNiveles", () -> cargarCompras(getEntityManager().createQuery("select distinct g "
+				+ "from Grupo g left join fetch g.conciertos "
+				+ "order by g.idgrupo", Grupo.class)
+				.setHint(SIN_DISTINCT_SQL, false)
+				.getResultList()));
+	}
+
+	/**
+	 * Busqueda de varios grupos y su información asociada con una consulta por nivel
+	 * (ver {@link EstrategiaCarga#POR_NIVELES}).
+	 * 
+	 * @param ids PKs de los grupos
+	 * @return Lista de grupos ordenada por PK
+	 */
+	public List<Grupo> consultarPorNiveles(Collection<Integer> ids) {
+		return timed("consultarPorNiveles", () -> {
+			List<Grupo> grupos = new ArrayList<>();
+			for (List<Integer> trozo : partition(ids)) {
+				grupos.addAll(getEntityManager().createQuery("select distinct g "
+						+ "from Grupo g left join fetch g.conciertos "
+						+ "where g.idgrupo in :ids", Grupo.class)
+						.setParameter("ids", trozo)
+						.setHint(SIN_DISTINCT_SQL, false)
+						.getResultList());
+			}
+			grupos.sort(Comparator.comparingInt(Grupo::getIdgrupo));
+			return cargarCompras(grupos);
+		});
+	}
+
+	/**
+	 * Segundo nivel: carga en una consulta por cada bloque de conciertos sus compras y los clientes
+	 * de estas. Los conciertos ya están en el contexto de persistencia, así que la consulta
+	 * inicializa sus colecciones de compras; los clientes van unidos a su compra (muchos a uno),
+	 * por lo que no multiplican las filas.
+	 * 
+	 * @param grupos Grupos con sus conciertos ya cargados
+	 * @return Los mismos grupos
+	 */
+	private List<Grupo> cargarCompras(List<Grupo> grupos) {
+		List<Integer> conciertos = new ArrayList<>();
+		for (Grupo grupo : grupos) {
+			for (Concierto concierto : grupo.getConciertos()) {
+				conciertos.add(concierto.getIdconcierto());
+			}
+		}
+		for (List<Integer> trozo : partition(conciertos)) {
+			getEntityManager().createQuery("select distinct c "
+					+ "from Concierto c left join fetch c.compras cp left join fetch cp.cliente "
+					+ "where c.idconcierto in :ids", Concierto.class)
+					.setParameter("ids", trozo)
+					.setHint(SIN_DISTINCT_SQL, false)
+					.getResultList();
+		}
+		return grupos;
+	}
+
+	/**
+	 * Busqueda de todos los grupos y su información asociada con la estrategia indicada.
+	 * 
+	 * @param estrategia Estrategia de carga
+	 * @param nombreGrafo Grafo de entidades, para {@link EstrategiaCarga#GRAFO}
+	 * @param pista Pista del grafo
+	 * @return Lista de grupos
+	 */
+	public List<Grupo> consultar(EstrategiaCarga estrategia, String nombreGrafo, String pista) {
+		return estrategia == EstrategiaCarga.GRAFO ? consultar(nombreGrafo, pista) : consultarPorNiveles();
+	}
+
+	/**
+	 * Busqueda de varios grupos y su información asociada con la estrategia indicada.
+	 * 
+	 * @param estrategia Estrategia de carga
+	 * @param ids PKs de los grupos
+	 * @param nombreGrafo Grafo de entidades, para {@link EstrategiaCarga#GRAFO}
+	 * @param pista Pista del grafo
+	 * @return Lista de grupos ordenada por PK
+	 */
+	public List<Grupo> consultar(EstrategiaCarga estrategia, Collection<Integer> ids, String nombreGrafo,
+			String pista) {
+		return estrategia == EstrategiaCarga.GRAFO ? consultar(ids, nombreGrafo, pista) : consultarPorNiveles(ids);
+	}
+
+	/**
+	 * Busqueda de todos los grupos con sus conciertos, compras y compradores como proyecciones
+	 * de solo lectura. Usa tres consultas de columnas (grupos, conciertos y compras agrupadas por
+	 * concierto y cliente), por lo que no se crean entidades gestionadas ni copias para detectar cambios.
+	 * 
+	 * @return Lista de grupos ordenada por PK, con los conciertos ordenados por PK
+	 */
+	public List<ResumenGrupo> consultarResumen() {
+		return timed("consultarResumen", () -> {
+			Map<Integer, List<ResumenComprador>> compradores = new HashMap<>();
+			for (Object[] fila : getEntityManager().createQuery("select cp.concierto.idconcierto, "
+					+ "cl.nif, cl.nombre, cl.apellidos, count(cp), sum(cp.nTickets) "
+					+ "from Compra cp join cp.cliente cl "
+					+ "group by cp.concierto.idconcierto, cl.nif, cl.nombre, cl.apellidos "
+					+ "order by cl.nif", Object[].class).getResultList()) {
+				compradores.computeIfAbsent((Integer) fila[0], k -> new ArrayList<>())
+						.add(new ResumenComprador((String) fila[1], (String) fila[2], (String) fila[3],
+								((Number) fila[4]).longValue(), ((Number) fila[5]).longValue()));
+			}
+
+			// Tickets de los conciertos repartidos en fracciones, que se suman a los de la columna
+			Map<Integer, Integer> fracciones = new HashMap<>();
+			for (Object[] fila : getEntityManager().createQuery("select f.id.idconcierto, sum(f.tickets) "
+					+ "from FraccionTickets f "
+					+ "group by f.id.idconcierto", Object[].class).getResultList()) {
+				fracciones.put((Integer) fila[0], ((Number) fila[1]).intValue());
+			}
+
+			Map<Integer, List<ResumenConcierto>> conciertos = new HashMap<>();
+			for (Object[] fila : getEntityManager().createQuery("select c.grupo.idgrupo, "
+					+ "c.idconcierto, c.nombre, c.fecha, c.ciudad, c.precio, c.tickets "
+					+ "from Concierto c "
+					+ "order by c.idconcierto", Object[].class).getResultList()) {
+				int idconcierto = (Integer) fila[1];
+				conciertos.computeIfAbsent((Integer) fila[0], k -> new ArrayList<>())
+						.add(new ResumenConcierto(idconcierto, (String) fila[2], (Date) fila[3], (String) fila[4],
+								((Number) fila[5]).doubleValue(),
+								((Number) fila[6]).intValue() + fracciones.getOrDefault(idconcierto, 0),
+								compradores.getOrDefault(idconcierto, new ArrayList<>())));
+			}
+
+			List<ResumenGrupo> grupos = new ArrayList<>();
+			for (Object[] fila : getEntityManager().createQuery("select g.idgrupo, g.nombre, g.estilo, g.activo "
+					+ "from Grupo g "
+					+ "order by g.idgrupo", Object[].class).getResultList()) {
+				int idgrupo = (Integer) fila[0];
+				grupos.add(new ResumenGrupo(idgrupo, (String) fila[1], (String) fila[2], ((Number) fila[3]).intValue(),
+						conciertos.getOrDefault(idgrupo, new ArrayList<>())));
+			}
+			return grupos;
+		});
+	}
 
 	/**
 	 * Redefinicion del método findAll que realiza una busqueda de todos los grupos en la base de datos.
@@ -0,0 +1,33 @@
+package es.ubu.lsi.dao;
+
+/**
+ * Estrategia para cargar los grupos con sus conciertos, compras y clientes.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public enum EstrategiaCarga {
+
+	/**
+	 * Una sola consulta con el grafo de entidades. Une conciertos y compras en la misma
+	 * sentencia, por lo que devuelve una fila por compra repitiendo los datos del grupo y del concierto.
+	 */
+	GRAFO,
+
+	/**
+	 * Una consulta por nivel: los grupos con sus conciertos y después las compras con sus clientes
+	 * de esos conciertos, con IN sobre sus PK. Las filas devueltas crecen linealmente con los datos.
+	 */
+	POR_NIVELES;
+
+	/** Propiedad de sistema con la estrategia (grafo o por_niveles). */
+	public static final String PROPIEDAD = "conciertos.consulta.estrategia";
+
+	/**
+	 * Devuelve la estrategia indicada en las propiedades de sistema, por niveles por defecto.
+	 * 
+	 * @return Estrategia configurada
+	 */
+	public static EstrategiaCarga configurada() {
+		return valueOf(System.getProperty(PROPIEDAD, POR_NIVELES.name()).toUpperCase());
+	}
+}
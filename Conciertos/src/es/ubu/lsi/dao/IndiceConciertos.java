@@ -0,0 +1,113 @@
+package es.ubu.lsi.dao;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice en memoria, compartido por todos los gestores de entidades, que resuelve
+ * el concierto de un grupo en una fecha sin consultar la base de datos.
+ * 
+ * Se rellena de forma perezosa con los conciertos encontrados y hay que invalidarlo
+ * cuando se borran conciertos.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class IndiceConciertos {
+
+	/** Instancia única. */
+	private static final IndiceConciertos instancia = new IndiceConciertos();
+
+	/** PK del concierto por grupo y fecha. */
+	private final Map<Clave, Integer> conciertos = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor privado, usar {@link #getInstance()}.
+	 */
+	private IndiceConciertos() {
+	}
+
+	/**
+	 * Devuelve la instancia única del índice.
+	 * 
+	 * @return Índice de conciertos
+	 */
+	public static IndiceConciertos getInstance() {
+		return instancia;
+	}
+
+	/**
+	 * Busca el concierto de un grupo en una fecha.
+	 * 
+	 * @param idGrupo PK del grupo
+	 * @param fecha Fecha del concierto
+	 * @return PK del concierto, o null si no está en el índice
+	 */
+	public Integer buscar(int idGrupo, Date fecha) {
+		return conciertos.get(new Clave(idGrupo, fecha.getTime()));
+	}
+
+	/**
+	 * Añade un concierto al índice.
+	 * 
+	 * @param idGrupo PK del grupo
+	 * @param fecha Fecha del concierto
+	 * @param idConcierto PK del concierto
+	 */
+	public void registrar(int idGrupo, Date fecha, int idConcierto) {
+		conciertos.put(new Clave(idGrupo, fecha.getTime()), idConcierto);
+	}
+
+	/**
+	 * Elimina del índice todos los conciertos de un grupo.
+	 * 
+	 * @param idGrupo PK del grupo
+	 */
+	public void invalidarGrupo(int idGrupo) {
+		conciertos.keySet().removeIf(clave -> clave.grupo == idGrupo);
+	}
+
+	/**
+	 * Elimina un concierto del índice.
+	 * 
+	 * @param idConcierto PK del concierto
+	 */
+	public void invalidarConcierto(int idConcierto) {
+		conciertos.values().removeIf(id -> id == idConcierto);
+	}
+
+	/**
+	 * Vacía el índice.
+	 */
+	public void vaciar() {
+		conciertos.clear();
+	}
+
+	/**
+	 * Clave del índice: grupo y fecha en milisegundos.
+	 */
+	private static final class Clave {
+
+		private final int grupo;
+		private final long fecha;
+
+		Clave(int grupo, long fecha) {
+			this.grupo = grupo;
+			this.fecha = fecha;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Clave)) {
+				return false;
+			}
+			Clave otra = (Clave) o;
+			return grupo == otra.grupo && fecha == otra.fecha;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * grupo + Long.hashCode(fecha);
+		}
+	}
+}
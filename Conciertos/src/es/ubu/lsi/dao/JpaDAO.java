@@ -1,9 +1,17 @@
 package es.ubu.lsi.dao;
 
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
 
 import javax.persistence.EntityManager;
 
+import es.ubu.lsi.service.metrics.MetricRegistry;
+import es.ubu.lsi.service.metrics.StatementProfiler;
+import es.ubu.lsi.service.metrics.Timer;
+
 /**
  * JPA DAO generic implementation. All JPA DAO should inherit from this class.
  * 
@@ -20,6 +28,18 @@ public abstract class JpaDAO<E,K> implements DAO<E,K> {
 	/** Index of entity formal par. */
 	private static final int ENTITY_FORMAL_PAR = 0;
 
+	/** Max number of values in an IN list (Oracle limit). */
+	protected static final int MAX_IN_VALUES = 1000;
+
+	/** Property with the JDBC batch size of the persistence unit. */
+	private static final String BATCH_SIZE_PROPERTY = "hibernate.jdbc.batch_size";
+
+	/** Chunk size when the persistence unit does not set a JDBC batch size. */
+	private static final int DEFAULT_CHUNK_SIZE = 50;
+
+	/** Registry of the timings of the DAO methods. */
+	private static final MetricRegistry METRICS = MetricRegistry.getInstance();
+
 	/**
 	 * Entity class.
 	 */
@@ -64,6 +84,60 @@ public abstract class JpaDAO<E,K> implements DAO<E,K> {
 	 */
 	public void persist(E entity) { entityManager.persist(entity); }
 
+	/**
+	 * Persists entities in chunks of the JDBC batch size of the persistence unit.
+	 * 
+	 * @param entities entities
+	 */
+	public void persistAll(Collection<E> entities) { persistAll(entities, chunkSize()); }
+
+	/**
+	 * Persists entities, flushing and clearing the persistence context after each chunk
+	 * so every chunk is sent as JDBC batches and memory does not grow with the collection.
+	 * Entities already in the persistence context become detached.
+	 * 
+	 * @param entities entities
+	 * @param chunkSize entities per flush, should be a multiple of the JDBC batch size
+	 */
+	public void persistAll(Collection<E> entities, int chunkSize) {
+		timed("persistAll", () -> {
+			int pending = 0;
+			for (E entity : entities) {
+				entityManager.persist(entity);
+				if (++pending == chunkSize) {
+					entityManager.flush();
+					entityManager.clear();
+					pending = 0;
+				}
+			}
+			if (pending > 0) {
+				entityManager.flush();
+				entityManager.clear();
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Gets the chunk size for {@link #persistAll(Collection)} from the persistence unit.
+	 * 
+	 * @return JDBC batch size, or a default value if it is not set
+	 */
+	protected int chunkSize() {
+		Object batchSize = entityManager.getEntityManagerFactory().getProperties().get(BATCH_SIZE_PROPERTY);
+		if (batchSize != null) {
+			try {
+				int size = Integer.parseInt(batchSize.toString().trim());
+				if (size > 0) {
+					return size;
+				}
+			} catch (NumberFormatException e) {
+				// Not a valid batch size, use the default one
+			}
+		}
+		return DEFAULT_CHUNK_SIZE;
+	}
+
 	/**
 	 * Removes entity.
 	 * 
@@ -78,5 +152,51 @@ public abstract class JpaDAO<E,K> implements DAO<E,K> {
 	 * @return found entity with that primary key
 	 */
 	@SuppressWarnings("unchecked")
-	public E findById(K id) { return (E) entityManager.find(entityClass, id); }
-}
+	public E findById(K id) { return timed("findById", () -> (E) entityManager.find(entityClass, id)); }
+
+	/**
+	 * Runs a DAO method recording its duration in the timer <code>dao.&lt;DAO class&gt;.&lt;method&gt;</code>,
+	 * whose count is the number of calls, and attributing its statements to it in the
+	 * {@link StatementProfiler}.
+	 * 
+	 * @param <T> result type
+	 * @param method method name
+	 * @param operation body of the method
+	 * @return result of the operation
+	 */
+	protected <T> T timed(String method, Supplier<T> operation) {
+		String name = getClass().getSimpleName() + "." + method;
+		Timer timer = METRICS.timer("dao." + name);
+		String previous = StatementProfiler.enterDao(name);
+		long start = timer.start();
+		try {
+			return operation.get();
+		} finally {
+			timer.stop(start);
+			StatementProfiler.exitDao(previous);
+		}
+	}
+
+	/**
+	 * Splits values in chunks small enough to be bound to an IN list.
+	 * 
+	 * @param <T> value type
+	 * @param values values
+	 * @return chunks with at most {@link #MAX_IN_VALUES} values
+	 */
+	protected static <T> List<List<T>> partition(Collection<T> values) {
+		List<List<T>> chunks = new ArrayList<>();
+		List<T> chunk = new ArrayList<>();
+		for (T value : values) {
+			if (chunk.size() == MAX_IN_VALUES) {
+				chunks.add(chunk);
+				chunk = new ArrayList<>();
+			}
+			chunk.add(value);
+		}
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+package es.ubu.lsi.dao;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro en memoria, compartido por todos los gestores de entidades, con una cota superior
+ * de los tickets que le quedan a cada concierto. Permite rechazar sin abrir una sesión las
+ * compras de conciertos agotados o con menos tickets de los pedidos.
+ * 
+ * La cota solo se actualiza a la baja con lo que se observa en la base de datos (tickets leídos,
+ * descuentos cometidos y descuentos rechazados), y como los tickets de un concierto solo
+ * disminuyen sigue siendo válida aunque haya compras concurrentes. Hay que invalidarla
+ * cuando se devuelven tickets o se borra el concierto.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class RegistroAgotados {
+
+	/** Instancia única. */
+	private static final RegistroAgotados instancia = new RegistroAgotados();
+
+	/** Cota de cada concierto por PK. */
+	private final Map<Integer, Cota> cotas = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor privado, usar {@link #getInstance()}.
+	 */
+	private RegistroAgotados() {
+	}
+
+	/**
+	 * Devuelve la instancia única del registro.
+	 * 
+	 * @return Registro de agotados
+	 */
+	public static RegistroAgotados getInstance() {
+		return instancia;
+	}
+
+	/**
+	 * Comprueba si se sabe que un concierto no tiene los tickets pedidos.
+	 * 
+	 * @param idConcierto PK del concierto
+	 * @param tickets Tickets pedidos
+	 * @return true si la cota es menor que los tickets pedidos
+	 */
+	public boolean sinTickets(int idConcierto, int tickets) {
+		Cota cota = cotas.get(idConcierto);
+		return cota != null && cota.tickets < tickets;
+	}
+
+	/**
+	 * Rebaja la cota de un concierto si el valor observado es menor que la actual.
+	 * 
+	 * @param idConcierto PK del concierto
+	 * @param idGrupo PK del grupo del concierto
+	 * @param tickets Máximo de tickets que pueden quedar
+	 */
+	public void acotar(int idConcierto, int idGrupo, int tickets) {
+		Cota nueva = new Cota(idGrupo, Math.max(0, tickets));
+		cotas.merge(idConcierto, nueva, (actual, observada) -> observada.tickets < actual.tickets ? observada : actual);
+	}
+
+	/**
+	 * Elimina la cota de un concierto, por ejemplo al devolver tickets.
+	 * 
+	 * @param idConcierto PK del concierto
+	 */
+	public void invalidarConcierto(int idConcierto) {
+		cotas.remove(idConcierto);
+	}
+
+	/**
+	 * Elimina las cotas de todos los conciertos de un grupo.
+	 * 
+	 * @param idGrupo PK del grupo
+	 */
+	public void invalidarGrupo(int idGrupo) {
+		cotas.values().removeIf(cota -> cota.grupo == idGrupo);
+	}
+
+	/**
+	 * Vacía el registro.
+	 */
+	public void vaciar() {
+		cotas.clear();
+	}
+
+	/**
+	 * Cota de un concierto. Inmutable, se sustituye al rebajarla.
+	 */
+	private static final class Cota {
+
+		private final int grupo;
+		private final int tickets;
+
+		Cota(int grupo, int tickets) {
+			this.grupo = grupo;
+			this.tickets = tickets;
+		}
+	}
+}
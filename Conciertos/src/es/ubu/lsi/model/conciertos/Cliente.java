@@ -2,6 +2,9 @@ package es.ubu.lsi.model.conciertos;
 
 import java.io.Serializable;
 import javax.persistence.*;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.util.Set;
 
 
@@ -10,6 +13,9 @@ import java.util.Set;
  * 
  */
 @Entity
+// Datos de referencia: se leen en cada compra y apenas cambian
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE, region="conciertos.cliente")
 @NamedQuery(name="Cliente.findAll", query="SELECT c FROM Cliente c")
 public class Cliente implements Serializable {
 	private static final long serialVersionUID = 1L;
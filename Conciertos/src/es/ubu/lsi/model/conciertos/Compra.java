@@ -14,7 +14,10 @@ import javax.persistence.*;
 public class Compra implements Serializable {
 	private static final long serialVersionUID = 1L;
 
+	// Identificadores asignados por bloques desde la secuencia, sin consultar la tabla
 	@Id
+	@SequenceGenerator(name="COMPRA_IDCOMPRA_GENERATOR", sequenceName="SEQ_COMPRA", allocationSize=50)
+	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="COMPRA_IDCOMPRA_GENERATOR")
 	private int idcompra;
 
 	@Column(name="N_TICKETS")
@@ -0,0 +1,53 @@
+package es.ubu.lsi.model.conciertos;
+
+/**
+ * Compra aceptada por el inventario en memoria y pendiente de escribir en la base de datos,
+ * con su PK ya asignada. Es el registro del diario de compras. Inmutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class CompraPendiente {
+
+	private final int idcompra;
+	private final String nif;
+	private final int idconcierto;
+	private final int tickets;
+
+	/**
+	 * Constructor de la compra pendiente.
+	 * 
+	 * @param idcompra PK de la compra
+	 * @param nif NIF del cliente
+	 * @param idconcierto PK del concierto
+	 * @param tickets Tickets comprados
+	 */
+	public CompraPendiente(int idcompra, String nif, int idconcierto, int tickets) {
+		this.idcompra = idcompra;
+		this.nif = nif;
+		this.idconcierto = idconcierto;
+		this.tickets = tickets;
+	}
+
+	// Métodos getter
+	public int getIdcompra() {
+		return idcompra;
+	}
+
+	public String getNif() {
+		return nif;
+	}
+
+	public int getIdconcierto() {
+		return idconcierto;
+	}
+
+	public int getTickets() {
+		return tickets;
+	}
+
+	@Override
+	public String toString() {
+		return "Compra pendiente: Id: " + idcompra + ". NIF: " + nif + ". Concierto: " + idconcierto + ". Tickets: "
+				+ tickets + ".";
+	}
+}
@@ -30,6 +30,14 @@ public class Concierto implements Serializable {
 
 	private int tickets;
 
+	// Tickets repartidos en fracciones (CONCIERTO_FRACCION); no se persiste, lo rellena la consulta de grupos
+	@Transient
+	private int ticketsFracciones;
+
+	// Control de concurrencia optimista sobre el inventario del concierto
+	@Version
+	private int version;
+
 	//bi-directional many-to-one association to Compra
 	@OneToMany(mappedBy="concierto")
 	private Set<Compra> compras;
@@ -86,6 +94,13 @@ public class Concierto implements Serializable {
 		this.precio = precio;
 	}
 
+	/**
+	 * Tickets de la columna TICKETS. Si el concierto está repartido en fracciones
+	 * (CONCIERTO_FRACCION) no incluye los suyos: los disponibles se leen con
+	 * {@link es.ubu.lsi.dao.DAOConcierto#findTickets(java.util.Collection)}.
+	 * 
+	 * @return Tickets de la columna
+	 */
 	public int getTickets() {
 		return this.tickets;
 	}
@@ -94,6 +109,33 @@ public class Concierto implements Serializable {
 		this.tickets = tickets;
 	}
 
+	/**
+	 * Tickets disponibles: los de la columna TICKETS más los repartidos en fracciones que ha
+	 * leído la consulta que cargó el concierto. De solo lectura.
+	 * 
+	 * @return Tickets disponibles
+	 */
+	public int getTicketsDisponibles() {
+		return this.tickets + this.ticketsFracciones;
+	}
+
+	/**
+	 * Fija los tickets repartidos en fracciones leídos por la consulta; no se persisten.
+	 * 
+	 * @param ticketsFracciones Suma de los tickets de las fracciones
+	 */
+	public void setTicketsFracciones(int ticketsFracciones) {
+		this.ticketsFracciones = ticketsFracciones;
+	}
+
+	public int getVersion() {
+		return this.version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	public Set<Compra> getCompras() {
 		return this.compras;
 	}
@@ -112,7 +154,7 @@ public class Concierto implements Serializable {
 	
 	@Override
 	public String toString() {
-		return "Concierto: Id: " + idconcierto + ". Nombre: " + nombre + ". Ciudad: " + ciudad + ". Fecha: " + fecha + ". Precio: " + precio + ". Tickets: " + tickets + ".";
+		return "Concierto: Id: " + idconcierto + ". Nombre: " + nombre + ". Ciudad: " + ciudad + ". Fecha: " + fecha + ". Precio: " + precio + ". Tickets: " + getTicketsDisponibles() + ".";
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package es.ubu.lsi.model.conciertos;
+
+import java.io.Serializable;
+
+import javax.persistence.*;
+
+
+/**
+ * The persistent class for the CONCIERTO_FRACCION database table.
+ * Cada fila es una parte de los tickets disponibles de un concierto muy demandado, para que
+ * las compras concurrentes descuenten de filas distintas (ver DAOConcierto.decrementTickets).
+ * 
+ */
+@Entity
+@Table(name="CONCIERTO_FRACCION")
+public class FraccionTickets implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	@EmbeddedId
+	private FraccionTicketsPK id;
+
+	private int tickets;
+
+	/**
+	 * Constructor de la entidad fracción de tickets
+	 */
+	public FraccionTickets() {
+	}
+
+	/**
+	 * Constructor de la entidad fracción de tickets
+	 * 
+	 * @param idconcierto PK del concierto
+	 * @param fraccion Número de fracción, desde 0
+	 * @param tickets Tickets disponibles en la fracción
+	 */
+	public FraccionTickets(int idconcierto, int fraccion, int tickets) {
+		this.id = new FraccionTicketsPK(idconcierto, fraccion);
+		this.tickets = tickets;
+	}
+
+	// Métodos setter y getter
+	public FraccionTicketsPK getId() {
+		return this.id;
+	}
+
+	public void setId(FraccionTicketsPK id) {
+		this.id = id;
+	}
+
+	public int getTickets() {
+		return this.tickets;
+	}
+
+	public void setTickets(int tickets) {
+		this.tickets = tickets;
+	}
+
+	@Override
+	public String toString() {
+		return "Fracción: Concierto: " + id.getIdconcierto() + ". Fracción: " + id.getFraccion() + ". Tickets: " + tickets + ".";
+	}
+
+}
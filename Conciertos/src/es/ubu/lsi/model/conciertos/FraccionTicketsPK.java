@@ -0,0 +1,69 @@
+package es.ubu.lsi.model.conciertos;
+
+import java.io.Serializable;
+
+import javax.persistence.*;
+
+/**
+ * The primary key class for the CONCIERTO_FRACCION database table.
+ * 
+ */
+@Embeddable
+public class FraccionTicketsPK implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private int idconcierto;
+
+	private int fraccion;
+
+	/**
+	 * Constructor de la clave de la fracción
+	 */
+	public FraccionTicketsPK() {
+	}
+
+	/**
+	 * Constructor de la clave de la fracción
+	 * 
+	 * @param idconcierto PK del concierto
+	 * @param fraccion Número de fracción, desde 0
+	 */
+	public FraccionTicketsPK(int idconcierto, int fraccion) {
+		this.idconcierto = idconcierto;
+		this.fraccion = fraccion;
+	}
+
+	// Métodos setter y getter
+	public int getIdconcierto() {
+		return this.idconcierto;
+	}
+
+	public void setIdconcierto(int idconcierto) {
+		this.idconcierto = idconcierto;
+	}
+
+	public int getFraccion() {
+		return this.fraccion;
+	}
+
+	public void setFraccion(int fraccion) {
+		this.fraccion = fraccion;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof FraccionTicketsPK)) {
+			return false;
+		}
+		FraccionTicketsPK castOther = (FraccionTicketsPK) other;
+		return this.idconcierto == castOther.idconcierto && this.fraccion == castOther.fraccion;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.idconcierto + this.fraccion;
+	}
+}
@@ -3,6 +3,9 @@ package es.ubu.lsi.model.conciertos;
 import java.io.Serializable;
 import javax.persistence.*;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import java.util.Set;
 
 
@@ -11,6 +14,9 @@ import java.util.Set;
  * 
  */
 @Entity
+// Datos de referencia: se leen en cada compra y cambian solo al desactivar el grupo
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.READ_WRITE, region="conciertos.grupo")
 @NamedQuery(name="Grupo.findAll", query="SELECT g FROM Grupo g")
 @NamedEntityGraph(
         name = "gruposConConciertosComprasyClientes",
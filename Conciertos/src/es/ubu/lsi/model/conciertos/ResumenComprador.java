@@ -0,0 +1,60 @@
+package es.ubu.lsi.model.conciertos;
+
+/**
+ * Proyección de solo lectura de un cliente que ha comprado tickets de un concierto,
+ * con el total de sus compras para ese concierto. Inmutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class ResumenComprador {
+
+	private final String nif;
+	private final String nombre;
+	private final String apellidos;
+	private final long compras;
+	private final long tickets;
+
+	/**
+	 * Constructor de la proyección.
+	 * 
+	 * @param nif NIF del cliente
+	 * @param nombre Nombre del cliente
+	 * @param apellidos Apellidos del cliente
+	 * @param compras Número de compras del cliente en el concierto
+	 * @param tickets Tickets comprados por el cliente en el concierto
+	 */
+	public ResumenComprador(String nif, String nombre, String apellidos, long compras, long tickets) {
+		this.nif = nif;
+		this.nombre = nombre;
+		this.apellidos = apellidos;
+		this.compras = compras;
+		this.tickets = tickets;
+	}
+
+	// Métodos getter
+	public String getNif() {
+		return nif;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public String getApellidos() {
+		return apellidos;
+	}
+
+	public long getCompras() {
+		return compras;
+	}
+
+	public long getTickets() {
+		return tickets;
+	}
+
+	@Override
+	public String toString() {
+		return "Comprador: NIF: " + nif + ". Nombre: " + nombre + " " + apellidos + ". Compras: " + compras
+				+ ". Tickets: " + tickets + ".";
+	}
+}
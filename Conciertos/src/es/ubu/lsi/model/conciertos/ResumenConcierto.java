@@ -0,0 +1,99 @@
+package es.ubu.lsi.model.conciertos;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Proyección de solo lectura de un concierto con el número de compras, los tickets vendidos
+ * y sus compradores. Inmutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class ResumenConcierto {
+
+	private final int idconcierto;
+	private final String nombre;
+	private final Date fecha;
+	private final String ciudad;
+	private final double precio;
+	private final int tickets;
+	private final List<ResumenComprador> compradores;
+	private final long compras;
+	private final long ticketsVendidos;
+
+	/**
+	 * Constructor de la proyección. Las compras y los tickets vendidos se calculan a partir
+	 * de los compradores.
+	 * 
+	 * @param idconcierto PK del concierto
+	 * @param nombre Nombre del concierto
+	 * @param fecha Fecha del concierto
+	 * @param ciudad Ciudad del concierto
+	 * @param precio Precio del ticket
+	 * @param tickets Tickets disponibles
+	 * @param compradores Compradores del concierto
+	 */
+	public ResumenConcierto(int idconcierto, String nombre, Date fecha, String ciudad, double precio, int tickets,
+			List<ResumenComprador> compradores) {
+		this.idconcierto = idconcierto;
+		this.nombre = nombre;
+		this.fecha = new Date(fecha.getTime());
+		this.ciudad = ciudad;
+		this.precio = precio;
+		this.tickets = tickets;
+		this.compradores = Collections.unmodifiableList(compradores);
+		long totalCompras = 0;
+		long totalTickets = 0;
+		for (ResumenComprador comprador : compradores) {
+			totalCompras += comprador.getCompras();
+			totalTickets += comprador.getTickets();
+		}
+		this.compras = totalCompras;
+		this.ticketsVendidos = totalTickets;
+	}
+
+	// Métodos getter
+	public int getIdconcierto() {
+		return idconcierto;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public Date getFecha() {
+		return new Date(fecha.getTime());
+	}
+
+	public String getCiudad() {
+		return ciudad;
+	}
+
+	public double getPrecio() {
+		return precio;
+	}
+
+	public int getTickets() {
+		return tickets;
+	}
+
+	public List<ResumenComprador> getCompradores() {
+		return compradores;
+	}
+
+	public long getCompras() {
+		return compras;
+	}
+
+	public long getTicketsVendidos() {
+		return ticketsVendidos;
+	}
+
+	@Override
+	public String toString() {
+		return "Concierto: ID: " + idconcierto + ". Nombre: " + nombre + ". Fecha: " + fecha + ". Ciudad: " + ciudad
+				+ ". Precio: " + precio + ". Tickets: " + tickets + ". Compras: " + compras + ". Vendidos: "
+				+ ticketsVendidos + ".";
+	}
+}
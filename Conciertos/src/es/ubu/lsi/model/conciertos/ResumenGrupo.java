@@ -0,0 +1,63 @@
+package es.ubu.lsi.model.conciertos;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Proyección de solo lectura de un grupo con sus conciertos. A diferencia de la entidad
+ * {@link Grupo} no la gestiona el contexto de persistencia. Inmutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class ResumenGrupo {
+
+	private final int idgrupo;
+	private final String nombre;
+	private final String estilo;
+	private final int activo;
+	private final List<ResumenConcierto> conciertos;
+
+	/**
+	 * Constructor de la proyección.
+	 * 
+	 * @param idgrupo PK del grupo
+	 * @param nombre Nombre del grupo
+	 * @param estilo Estilo del grupo
+	 * @param activo 1 si el grupo está activo
+	 * @param conciertos Conciertos del grupo
+	 */
+	public ResumenGrupo(int idgrupo, String nombre, String estilo, int activo, List<ResumenConcierto> conciertos) {
+		this.idgrupo = idgrupo;
+		this.nombre = nombre;
+		this.estilo = estilo;
+		this.activo = activo;
+		this.conciertos = Collections.unmodifiableList(conciertos);
+	}
+
+	// Métodos getter
+	public int getIdgrupo() {
+		return idgrupo;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public String getEstilo() {
+		return estilo;
+	}
+
+	public int getActivo() {
+		return activo;
+	}
+
+	public List<ResumenConcierto> getConciertos() {
+		return conciertos;
+	}
+
+	@Override
+	public String toString() {
+		return "Grupo: ID: " + idgrupo + ". Nombre: " + nombre + ". Estilo: " + estilo + ". Activo: " + activo
+				+ ". Conciertos: " + conciertos.size() + ".";
+	}
+}
@@ -0,0 +1,195 @@
+package es.ubu.lsi.service;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.function.IntSupplier;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import oracle.ucp.jdbc.PoolDataSource;
+
+/**
+ * Creates the pooled data source used by the entity manager factory.
+ * 
+ * The pool is chosen with the system property <code>conciertos.pool</code>:
+ * <ul>
+ * <li><code>ucp</code>: Oracle UCP bound in the JNDI file context <code>res/.bindings</code>
+ * (see es.ubu.lsi.test.util.RegisterUCPPool).</li>
+ * <li><code>hikari</code>: HikariCP with the URL given by <code>conciertos.pool.url</code>
+ * (by default the one of the persistence-unit). Default for the embedded database.</li>
+ * <li><code>hibernate</code>: the internal Hibernate pool of persistence.xml (not for production).</li>
+ * </ul>
+ * Sizes and timeouts are set with <code>conciertos.pool.min</code>, <code>conciertos.pool.max</code>,
+ * <code>conciertos.pool.statements</code> (statement cache per connection),
+ * <code>conciertos.pool.leak</code> (seconds a connection can be borrowed before it is reported or
+ * reclaimed as leaked, 0 disables it) and <code>conciertos.pool.timeout</code> (seconds to wait for a
+ * connection).
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public final class ConnectionPoolFactory {
+
+	/** Logger. */
+	private static final Logger logger = LoggerFactory.getLogger(ConnectionPoolFactory.class);
+
+	/** System property with the pool implementation. */
+	public static final String POOL_PROPERTY = "conciertos.pool";
+
+	/** Oracle UCP. */
+	public static final String UCP = "ucp";
+
+	/** HikariCP. */
+	public static final String HIKARI = "hikari";
+
+	/** Internal Hibernate pool. */
+	public static final String HIBERNATE = "hibernate";
+
+	/** JNDI name of the UCP pool. */
+	private static final String JDBC_UCP_POOL = "jdbc/UCP_pool";
+
+	/** Default URL, user and password for HikariCP, the same as in persistence.xml. */
+	private static final String DEFAULT_URL = "jdbc:oracle:thin:@localhost:1521:XE";
+	private static final String DEFAULT_USER = "HR";
+	private static final String DEFAULT_PASSWORD = "hr";
+
+	/** Default URL, user and password for HikariCP on the embedded database, the same as in persistence.xml. */
+	private static final String EMBEDDED_URL = "jdbc:h2:mem:conciertos;MODE=Oracle;DB_CLOSE_DELAY=-1";
+	private static final String EMBEDDED_USER = "sa";
+	private static final String EMBEDDED_PASSWORD = "";
+
+	/** Not instantiable. */
+	private ConnectionPoolFactory() {
+	}
+
+	/**
+	 * Gets the configured pool implementation.
+	 * 
+	 * @param defaultPool pool used if the system property is not set
+	 * @return pool implementation name
+	 */
+	public static String configuredPool(String defaultPool) {
+		return System.getProperty(POOL_PROPERTY, defaultPool).trim().toLowerCase();
+	}
+
+	/**
+	 * Gets the configured maximum pool size.
+	 * 
+	 * @return maximum number of connections
+	 */
+	public static int maxSize() {
+		return Integer.getInteger("conciertos.pool.max", 10);
+	}
+
+	/**
+	 * Creates the pooled data source.
+	 * 
+	 * @param pool pool implementation, {@link #UCP} or {@link #HIKARI}
+	 * @param embedded whether the pool is for the embedded database (default HikariCP URL and user)
+	 * @return monitored data source
+	 * @throws IllegalArgumentException if the pool implementation is unknown
+	 * @throws IllegalStateException if the pool can not be created
+	 */
+	public static MonitoredDataSource create(String pool, boolean embedded) {
+		int min = Integer.getInteger("conciertos.pool.min", 3);
+		int max = maxSize();
+		int statements = Integer.getInteger("conciertos.pool.statements", 50);
+		int leakSeconds = Integer.getInteger("conciertos.pool.leak", 60);
+		int timeoutSeconds = Integer.getInteger("conciertos.pool.timeout", 5);
+		logger.info("Pool {}: min={}, max={}, statements={}, leak={}s, timeout={}s", pool, min, max, statements,
+				leakSeconds, timeoutSeconds);
+		switch (pool) {
+		case UCP:
+			return Ucp.create(min, max, statements, leakSeconds, timeoutSeconds);
+		case HIKARI:
+			return embedded ? Hikari.create(EMBEDDED_URL, EMBEDDED_USER, EMBEDDED_PASSWORD, min, max, statements,
+					leakSeconds, timeoutSeconds)
+					: Hikari.create(DEFAULT_URL, DEFAULT_USER, DEFAULT_PASSWORD, min, max, statements, leakSeconds,
+							timeoutSeconds);
+		default:
+			throw new IllegalArgumentException("Unknown connection pool: " + pool);
+		}
+	}
+
+	/**
+	 * Oracle UCP pool, in its own class so UCP is only needed on the classpath when it is used.
+	 */
+	private static final class Ucp {
+
+		/**
+		 * Looks up and configures the UCP pool registered in JNDI.
+		 */
+		static MonitoredDataSource create(int min, int max, int statements, int leakSeconds,
+				int timeoutSeconds) {
+			try {
+				Properties properties = new Properties();
+				properties.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.fscontext.RefFSContextFactory");
+				properties.setProperty(Context.PROVIDER_URL, "file:./res");
+				Context context = new InitialContext(properties);
+				PoolDataSource pds = (PoolDataSource) context.lookup(JDBC_UCP_POOL);
+				pds.setMinPoolSize(min);
+				pds.setMaxPoolSize(max);
+				pds.setInitialPoolSize(min);
+				pds.setMaxStatements(statements);
+				pds.setAbandonedConnectionTimeout(leakSeconds);
+				pds.setConnectionWaitTimeout(timeoutSeconds);
+				return new MonitoredDataSource(UCP, pds, gauge(pds, true), gauge(pds, false), max);
+			} catch (NamingException | SQLException e) {
+				throw new IllegalStateException("UCP pool not available in JNDI context", e);
+			}
+		}
+
+		/**
+		 * Reads the borrowed or available connections of a UCP pool.
+		 */
+		private static IntSupplier gauge(PoolDataSource pds, boolean borrowed) {
+			return () -> {
+				try {
+					return borrowed ? pds.getBorrowedConnectionsCount() : pds.getAvailableConnectionsCount();
+				} catch (SQLException e) {
+					return -1;
+				}
+			};
+		}
+	}
+
+	/**
+	 * HikariCP pool, in its own class so HikariCP is only needed on the classpath when it is used.
+	 */
+	private static final class Hikari {
+
+		/**
+		 * Creates a HikariCP pool, the URL, user and password given are overridden by the system properties.
+		 */
+		static MonitoredDataSource create(String defaultUrl, String defaultUser, String defaultPassword, int min,
+				int max, int statements, int leakSeconds, int timeoutSeconds) {
+			String url = System.getProperty("conciertos.pool.url", defaultUrl);
+			HikariConfig config = new HikariConfig();
+			config.setPoolName("Conciertos");
+			config.setJdbcUrl(url);
+			config.setUsername(System.getProperty("conciertos.pool.user", defaultUser));
+			config.setPassword(System.getProperty("conciertos.pool.password", defaultPassword));
+			config.setAutoCommit(false);
+			config.setMinimumIdle(min);
+			config.setMaximumPoolSize(max);
+			config.setLeakDetectionThreshold(leakSeconds * 1000L);
+			config.setConnectionTimeout(timeoutSeconds * 1000L);
+			if (url.startsWith("jdbc:oracle:")) {
+				// Statement cache of the Oracle driver, HikariCP has none of its own
+				config.addDataSourceProperty("oracle.jdbc.implicitStatementCacheSize", String.valueOf(statements));
+			}
+			HikariDataSource hds = new HikariDataSource(config);
+			HikariPoolMXBean mx = hds.getHikariPoolMXBean();
+			return new MonitoredDataSource(HIKARI, hds, mx::getActiveConnections, mx::getIdleConnections, max);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package es.ubu.lsi.service;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Pooled data source decorator measuring how long the application waits for connections.
+ * Active and idle counts are read from the underlying pool.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public class MonitoredDataSource implements DataSource {
+
+	/** Pool implementation name. */
+	private final String pool;
+
+	/** Pooled data source. */
+	private final DataSource delegate;
+
+	/** Borrowed connections in the pool. */
+	private final IntSupplier active;
+
+	/** Available connections in the pool. */
+	private final IntSupplier idle;
+
+	/** Maximum pool size. */
+	private final int maxSize;
+
+	/** Threads inside getConnection. */
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	/** Connection requests. */
+	private final LongAdder requests = new LongAdder();
+
+	/** Accumulated wait. */
+	private final LongAdder totalWaitNanos = new LongAdder();
+
+	/** Maximum wait. */
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param pool pool implementation name
+	 * @param delegate pooled data source
+	 * @param active borrowed connections supplier
+	 * @param idle available connections supplier
+	 * @param maxSize maximum pool size
+	 */
+	public MonitoredDataSource(String pool, DataSource delegate, IntSupplier active, IntSupplier idle, int maxSize) {
+		this.pool = pool;
+		this.delegate = delegate;
+		this.active = active;
+		this.idle = idle;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets a snapshot of the pool usage.
+	 * 
+	 * @return statistics
+	 */
+	public PoolStatistics getStatistics() {
+		return new PoolStatistics(pool, active.getAsInt(), idle.getAsInt(), maxSize, waiting.get(), requests.sum(),
+				totalWaitNanos.sum(), maxWaitNanos.get());
+	}
+
+	/**
+	 * Gets the maximum pool size.
+	 * 
+	 * @return maximum number of connections
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Gets the pooled data source.
+	 * 
+	 * @return underlying data source
+	 */
+	public DataSource getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		waiting.incrementAndGet();
+		try {
+			return delegate.getConnection();
+		} finally {
+			waiting.decrementAndGet();
+			record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Gets a pooled connection. The credentials are ignored: the pool opens its connections with
+	 * its own, and pools such as HikariCP reject per-call credentials (Hibernate passes them when
+	 * hibernate.connection.username is set in the persistence-unit).
+	 */
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection();
+	}
+
+	/**
+	 * Records a connection request.
+	 * 
+	 * @param waitNanos time waited
+	 */
+	private void record(long waitNanos) {
+		requests.increment();
+		totalWaitNanos.add(waitNanos);
+		maxWaitNanos.accumulate(waitNanos);
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return delegate.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		delegate.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		delegate.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return delegate.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return delegate.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || delegate.isWrapperFor(iface);
+	}
+}
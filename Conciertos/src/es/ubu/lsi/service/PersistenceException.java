@@ -49,5 +49,17 @@ public class PersistenceException extends Exception {
 	public PersistenceException(String text, Throwable ex) {
 		super(text, ex);
 	}
+
+	/**
+	 * Constructor for lightweight exceptions. Without a stack trace and suppression the
+	 * exception is cheap to create and can be preallocated and shared between threads.
+	 * 
+	 * @param text text
+	 * @param ex cause, may be null
+	 * @param writableStackTrace false to skip filling in the stack trace
+	 */
+	protected PersistenceException(String text, Throwable ex, boolean writableStackTrace) {
+		super(text, ex, false, writableStackTrace);
+	}
 	
 }
@@ -1,9 +1,19 @@
 package es.ubu.lsi.service;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import es.ubu.lsi.service.metrics.MetricRegistry;
+import es.ubu.lsi.service.metrics.PersistenceMetrics;
+import es.ubu.lsi.service.metrics.StatementProfiler;
+
 /**
  * Singleton to obtain entity managers.
  * 
@@ -21,15 +31,92 @@ public class PersistenceFactorySingleton {
 	// WARNING: review with your current persistence.xml
 	private static final String PERSISTENCE_CONTEXT_NAME = "Conciertos";
 
+	/**
+	 * Name of the persistence-unit backed by the embedded database (testing without Oracle).
+	 */
+	public static final String EMBEDDED_PERSISTENCE_CONTEXT_NAME = "ConciertosEmbebido";
+
+	/**
+	 * System property to select the persistence-unit, by default {@link #PERSISTENCE_CONTEXT_NAME}.
+	 */
+	public static final String PERSISTENCE_CONTEXT_PROPERTY = "conciertos.persistence.unit";
+
+	/**
+	 * Prefixes of the system properties that override the ones in persistence.xml
+	 * (e.g. -Dhibernate.jdbc.batch_size=100).
+	 */
+	private static final String[] OVERRIDE_PREFIXES = { "hibernate.", "javax.persistence." };
+
+	/** Property with the size of the internal Hibernate pool. */
+	private static final String INTERNAL_POOL_SIZE_PROPERTY = "hibernate.connection.pool_size";
+
+	/** Size of the internal Hibernate pool when the property is not set (Hibernate default). */
+	private static final int DEFAULT_INTERNAL_POOL_SIZE = 20;
+
+	/** Property giving the data source to the persistence provider. */
+	private static final String DATA_SOURCE_PROPERTY = "javax.persistence.nonJtaDataSource";
+
 	/** Singleton variable. */
 	private EntityManagerFactory emf;
-	
+
+	/** Pooled data source, null when the internal Hibernate pool is used. */
+	private MonitoredDataSource dataSource;
+
+	/** Maximum number of connections. */
+	private int maxPoolSize;
+
 	/** Singleton instance. */
 	private static PersistenceFactorySingleton singleton = new PersistenceFactorySingleton();
 
 	/** Constructor. */
 	private PersistenceFactorySingleton() {
-		emf = Persistence.createEntityManagerFactory(PERSISTENCE_CONTEXT_NAME);
+		String unit = System.getProperty(PERSISTENCE_CONTEXT_PROPERTY, PERSISTENCE_CONTEXT_NAME);
+		Map<String, Object> properties = overrides();
+		// The embedded database has no JNDI binding, it uses HikariCP unless another pool is configured
+		boolean embedded = EMBEDDED_PERSISTENCE_CONTEXT_NAME.equals(unit);
+		String pool = ConnectionPoolFactory.configuredPool(
+				embedded ? ConnectionPoolFactory.HIKARI : ConnectionPoolFactory.UCP);
+		if (!ConnectionPoolFactory.HIBERNATE.equals(pool)) {
+			dataSource = ConnectionPoolFactory.create(pool, embedded);
+			maxPoolSize = dataSource.getMaxSize();
+			properties.put(DATA_SOURCE_PROPERTY, dataSource);
+		}
+		if (StatementProfiler.isEnabled()) {
+			properties.putIfAbsent(StatementProfiler.INSPECTOR_PROPERTY, StatementProfiler.class.getName());
+		}
+		emf = Persistence.createEntityManagerFactory(unit, properties);
+		if (dataSource == null) {
+			maxPoolSize = internalPoolSize(emf);
+		}
+		PersistenceMetrics.register(MetricRegistry.getInstance());
+	}
+
+	/**
+	 * Collects the persistence properties given as system properties.
+	 * 
+	 * @return properties overriding the persistence-unit ones
+	 */
+	private static Map<String, Object> overrides() {
+		Map<String, Object> properties = new HashMap<>();
+		for (String name : System.getProperties().stringPropertyNames()) {
+			for (String prefix : OVERRIDE_PREFIXES) {
+				if (name.startsWith(prefix)) {
+					properties.put(name, System.getProperty(name));
+				}
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Reads the effective size of the internal Hibernate pool, after the system property overrides.
+	 * 
+	 * @param emf entity manager factory
+	 * @return maximum number of connections of the internal pool
+	 */
+	private static int internalPoolSize(EntityManagerFactory emf) {
+		Object size = emf.getProperties().get(INTERNAL_POOL_SIZE_PROPERTY);
+		return size == null ? DEFAULT_INTERNAL_POOL_SIZE : Integer.parseInt(size.toString().trim());
 	}
 
 	/**
@@ -38,19 +125,50 @@ public class PersistenceFactorySingleton {
 	 * @return entity manager
 	 */
 	public static EntityManager getEntityManager() {
-		EntityManager em = null;
-		synchronized (singleton) {
-			em = singleton.emf.createEntityManager();
-		}
-		return em;
+		// The factory is thread-safe, concurrent callers do not need to be serialized
+		return singleton.emf.createEntityManager();
+	}
+
+	/**
+	 * Gets the usage of the connection pool.
+	 * 
+	 * @return statistics, or null if the internal Hibernate pool is used
+	 */
+	public static PoolStatistics getPoolStatistics() {
+		return singleton.dataSource == null ? null : singleton.dataSource.getStatistics();
+	}
+
+	/**
+	 * Gets the Hibernate statistics (collected when hibernate.generate_statistics is true).
+	 * 
+	 * @return statistics
+	 */
+	public static Statistics getStatistics() {
+		return singleton.emf.unwrap(SessionFactory.class).getStatistics();
 	}
 
 	/**
-	 * Closes the entity manager factory if it is open.
+	 * Gets the maximum number of connections of the pool.
+	 * 
+	 * @return maximum pool size
+	 */
+	public static int getMaxPoolSize() {
+		return singleton.maxPoolSize;
+	}
+
+	/**
+	 * Closes the entity manager factory if it is open, and the connection pool.
 	 */
 	public static void close() {
 		if (singleton.emf.isOpen()) {
 			singleton.emf.close();
 		}
+		if (singleton.dataSource != null && singleton.dataSource.getDelegate() instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) singleton.dataSource.getDelegate()).close();
+			} catch (Exception e) {
+				throw new IllegalStateException("Error closing the connection pool", e);
+			}
+		}
 	}
 }
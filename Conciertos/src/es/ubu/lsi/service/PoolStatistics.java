@@ -0,0 +1,106 @@
+package es.ubu.lsi.service;
+
+/**
+ * Snapshot of the connection pool usage. Immutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public final class PoolStatistics {
+
+	/** Pool implementation name. */
+	private final String pool;
+
+	/** Connections borrowed by the application. */
+	private final int active;
+
+	/** Open connections available in the pool. */
+	private final int idle;
+
+	/** Maximum pool size. */
+	private final int maxSize;
+
+	/** Threads currently waiting for a connection. */
+	private final int waiting;
+
+	/** Connections requested since start-up. */
+	private final long requests;
+
+	/** Total time spent waiting for connections, in nanoseconds. */
+	private final long totalWaitNanos;
+
+	/** Maximum time spent waiting for a connection, in nanoseconds. */
+	private final long maxWaitNanos;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param pool pool implementation name
+	 * @param active borrowed connections
+	 * @param idle available connections
+	 * @param maxSize maximum pool size
+	 * @param waiting threads waiting for a connection
+	 * @param requests connections requested
+	 * @param totalWaitNanos total wait time in nanoseconds
+	 * @param maxWaitNanos maximum wait time in nanoseconds
+	 */
+	public PoolStatistics(String pool, int active, int idle, int maxSize, int waiting, long requests,
+			long totalWaitNanos, long maxWaitNanos) {
+		this.pool = pool;
+		this.active = active;
+		this.idle = idle;
+		this.maxSize = maxSize;
+		this.waiting = waiting;
+		this.requests = requests;
+		this.totalWaitNanos = totalWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+	}
+
+	public String getPool() {
+		return pool;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public int getIdle() {
+		return idle;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getWaiting() {
+		return waiting;
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getTotalWaitNanos() {
+		return totalWaitNanos;
+	}
+
+	public long getMaxWaitNanos() {
+		return maxWaitNanos;
+	}
+
+	/**
+	 * Gets the mean time spent waiting for a connection.
+	 * 
+	 * @return mean wait in milliseconds
+	 */
+	public double getMeanWaitMillis() {
+		return requests == 0 ? 0 : totalWaitNanos / 1e6 / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "Pool " + pool + ": active=" + active + ", idle=" + idle + ", max=" + maxSize + ", waiting=" + waiting
+				+ ", requests=" + requests + ", meanWait=" + String.format("%.3f", getMeanWaitMillis()) + "ms"
+				+ ", maxWait=" + String.format("%.3f", maxWaitNanos / 1e6) + "ms";
+	}
+}
@@ -0,0 +1,61 @@
+package es.ubu.lsi.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads when the running JVM has them (Java 21 or later).
+ * The project is compiled for Java 11, so they are obtained by reflection.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public final class VirtualThreads {
+
+	/** Executors.newVirtualThreadPerTaskExecutor, null if not available. */
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+	/** Not instantiable. */
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Looks up the factory method of the virtual thread executor.
+	 * 
+	 * @return method, or null in JVMs without virtual threads
+	 */
+	private static Method lookup() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if virtual threads are available.
+	 * 
+	 * @return true in Java 21 or later
+	 */
+	public static boolean isAvailable() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * Creates an executor starting a new virtual thread for each task.
+	 * 
+	 * @return executor
+	 * @throws UnsupportedOperationException if virtual threads are not available
+	 */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		if (!isAvailable()) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+		}
+		try {
+			return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Virtual thread executor not available", e);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import es.ubu.lsi.service.PersistenceException;
+import es.ubu.lsi.service.metrics.MetricRegistry;
+import es.ubu.lsi.service.metrics.Timer;
+
+/**
+ * Admisión de compras dentro de la máquina virtual: serializa las compras de un mismo concierto
+ * con cerrojos por franjas, de modo que como mucho hay una transacción en curso por concierto
+ * mientras que las de conciertos distintos (salvo colisión de franja) siguen en paralelo.
+ * 
+ * Así la contención por la fila de un concierto muy demandado se convierte en una espera en
+ * memoria, en lugar de esperas de bloqueo y rollbacks en la base de datos.
+ * El concierto se identifica por grupo y fecha, que son los datos de la petición, para no
+ * tener que resolver su PK antes de entrar. El número de franjas se configura con la propiedad
+ * <code>conciertos.admision.franjas</code> (256 por defecto, 0 para desactivar la admisión).
+ * 
+ * Las compras de un concierto con sus tickets repartidos en fracciones no se serializan: las
+ * fracciones ya reparten su contención entre varias filas. El servicio marca estos conciertos
+ * con {@link #marcarRepartido(int, Date, boolean)} según lo que encuentra en la base de datos.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class AdmisionCompras {
+
+	/** Propiedad de sistema con el número de franjas. */
+	public static final String PROPIEDAD_FRANJAS = "conciertos.admision.franjas";
+
+	/** Instancia compartida por el servicio y sus fachadas. */
+	private static final AdmisionCompras INSTANCIA = desdePropiedades();
+
+	/** Cerrojos, uno por franja; null si la admisión está desactivada. */
+	private final ReentrantLock[] franjas;
+
+	/** Conciertos repartidos en fracciones, por grupo y fecha, cuyas compras no se serializan. */
+	private final Set<String> repartidos = ConcurrentHashMap.newKeySet();
+
+	/** Tiempo de espera por la franja. */
+	private final Timer espera = MetricRegistry.getInstance().timer("service.comprar.admision");
+
+	/**
+	 * Constructor de la admisión.
+	 * 
+	 * @param franjas Número de franjas, se redondea a la siguiente potencia de 2; 0 la desactiva
+	 */
+	public AdmisionCompras(int franjas) {
+		if (franjas < 0) {
+			throw new IllegalArgumentException("Número de franjas no válido: " + franjas);
+		}
+		if (franjas == 0) {
+			this.franjas = null;
+			return;
+		}
+		int n = 1;
+		while (n < franjas) {
+			n <<= 1;
+		}
+		this.franjas = new ReentrantLock[n];
+		for (int i = 0; i < this.franjas.length; i++) {
+			this.franjas[i] = new ReentrantLock(true); // Orden de llegada: acota la latencia de la cola
+		}
+	}
+
+	/**
+	 * Crea la admisión a partir de las propiedades de sistema.
+	 * 
+	 * @return Admisión configurada
+	 */
+	public static AdmisionCompras desdePropiedades() {
+		return new AdmisionCompras(Integer.getInteger(PROPIEDAD_FRANJAS, 256));
+	}
+
+	/**
+	 * Devuelve la instancia compartida, configurada con las propiedades de sistema.
+	 * 
+	 * @return Admisión de compras
+	 */
+	public static AdmisionCompras getInstance() {
+		return INSTANCIA;
+	}
+
+	/**
+	 * Marca si un concierto tiene sus tickets repartidos en fracciones.
+	 * 
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param fecha Fecha del concierto
+	 * @param repartido Si el concierto tiene fracciones
+	 */
+	public void marcarRepartido(int grupo, Date fecha, boolean repartido) {
+		if (repartido) {
+			repartidos.add(grupo + "@" + fecha.getTime());
+		} else if (!repartidos.isEmpty()) {
+			repartidos.remove(grupo + "@" + fecha.getTime());
+		}
+	}
+
+	/**
+	 * Ejecuta la operación con el cerrojo de la franja del concierto. Si el hilo ya tiene
+	 * el cerrojo (una fachada que admite la compra antes de llamar al servicio) o el concierto
+	 * está repartido en fracciones la ejecuta sin más.
+	 * 
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param fecha Fecha del concierto
+	 * @param operacion Transacción de la compra
+	 * @param <T> Tipo del resultado
+	 * @return Resultado de la operación
+	 * @throws PersistenceException si la operación falla
+	 */
+	public <T> T ejecutar(int grupo, Date fecha, Transaccion<T> operacion)
+			throws PersistenceException {
+		if (franjas == null) {
+			return operacion.ejecutar();
+		}
+		ReentrantLock cerrojo = franjas[franja(grupo, fecha.getTime())];
+		if (cerrojo.isHeldByCurrentThread()
+				|| (!repartidos.isEmpty() && repartidos.contains(grupo + "@" + fecha.getTime()))) {
+			return operacion.ejecutar();
+		}
+		long inicio = espera.start();
+		cerrojo.lock();
+		try {
+			espera.stop(inicio);
+			return operacion.ejecutar();
+		} finally {
+			cerrojo.unlock();
+		}
+	}
+
+	/**
+	 * Franja de un concierto.
+	 */
+	private int franja(int grupo, long fecha) {
+		int h = 31 * grupo + Long.hashCode(fecha);
+		h ^= h >>> 16;
+		return h & (franjas.length - 1);
+	}
+}
@@ -0,0 +1,268 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.ubu.lsi.dao.IndiceConciertos;
+import es.ubu.lsi.dao.RegistroAgotados;
+import es.ubu.lsi.service.PersistenceFactorySingleton;
+import es.ubu.lsi.service.metrics.Counter;
+import es.ubu.lsi.service.metrics.MetricRegistry;
+
+/**
+ * Compra agrupada (group commit): reúne las compras de un mismo concierto que llegan dentro
+ * de una ventana de tiempo, o hasta completar un lote, y las realiza en una sola transacción
+ * con {@link Service#comprarLote(List)}, que las aplica en orden de llegada e inserta las compras
+ * en lotes JDBC. El inicio, la confirmación y la escritura del log se reparten entre todos los
+ * compradores del lote.
+ * 
+ * Cada concierto (grupo y fecha) tiene su cola y como mucho una transacción en curso; mientras
+ * se comete un lote, las compras que llegan forman el siguiente, que se envía en cuanto termina.
+ * La cola se retira cuando queda vacía y sin lotes en curso, así que solo se guardan las de los
+ * conciertos con compras recientes.
+ * La ventana se configura en milisegundos con la propiedad <code>conciertos.agrupador.ventana</code>
+ * (2 por defecto) y el tamaño máximo del lote con <code>conciertos.agrupador.lote</code> (100).
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class AgrupadorCompras implements AutoCloseable {
+
+	/** Propiedad de sistema con la ventana de agrupación en milisegundos. */
+	public static final String PROPIEDAD_VENTANA = "conciertos.agrupador.ventana";
+
+	/** Propiedad de sistema con el número máximo de compras por transacción. */
+	public static final String PROPIEDAD_LOTE = "conciertos.agrupador.lote";
+
+	/** Servicio que realiza los lotes. */
+	private final Service servicio;
+
+	/** Número máximo de compras por transacción. */
+	private final int lote;
+
+	/** Ventana de agrupación en milisegundos. */
+	private final long ventana;
+
+	/** Cola de cada concierto con compras pendientes o en curso, por grupo y fecha. */
+	private final Map<String, Cola> colas = new ConcurrentHashMap<>();
+
+	/** Hilo que cierra las ventanas. */
+	private final ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor(tarea -> {
+		Thread hilo = new Thread(tarea, "agrupador-compras-ventana");
+		hilo.setDaemon(true);
+		return hilo;
+	});
+
+	/** Hilos que ejecutan los lotes, tantos como conexiones tiene el pool. */
+	private final ExecutorService ejecutor;
+
+	private final Counter lotes = MetricRegistry.getInstance().counter("service.agrupador.lotes");
+	private final Counter pedidos = MetricRegistry.getInstance().counter("service.agrupador.pedidos");
+
+	/**
+	 * Constructor del agrupador.
+	 * 
+	 * @param servicio Servicio que realiza los lotes, seguro para hilos
+	 * @param ventana Ventana de agrupación en milisegundos
+	 * @param lote Número máximo de compras por transacción
+	 */
+	public AgrupadorCompras(Service servicio, long ventana, int lote) {
+		if (ventana < 0 || lote < 1) {
+			throw new IllegalArgumentException("Ventana o lote no válidos: " + ventana + ", " + lote);
+		}
+		this.servicio = servicio;
+		this.ventana = ventana;
+		this.lote = lote;
+		this.ejecutor = Executors.newFixedThreadPool(PersistenceFactorySingleton.getMaxPoolSize(), tarea -> {
+			Thread hilo = new Thread(tarea, "agrupador-compras");
+			hilo.setDaemon(true);
+			return hilo;
+		});
+	}
+
+	/**
+	 * Crea el agrupador a partir de las propiedades de sistema.
+	 * 
+	 * @param servicio Servicio que realiza los lotes
+	 * @return Agrupador configurado
+	 */
+	public static AgrupadorCompras desdePropiedades(Service servicio) {
+		return new AgrupadorCompras(servicio, Long.getLong(PROPIEDAD_VENTANA, 2L),
+				Integer.getInteger(PROPIEDAD_LOTE, 100));
+	}
+
+	/**
+	 * Encola una compra. Si el registro de agotados sabe que el concierto no tiene los tickets
+	 * pedidos se rechaza sin esperar a la ventana.
+	 * 
+	 * @param fecha Fecha del concierto
+	 * @param nif NIF del cliente
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param tickets Cantidad de tickets a comprar
+	 * @return Futuro con el resultado de la compra; termina con excepción si falla la transacción del lote
+	 */
+	public CompletableFuture<ResultadoCompra> comprar(Date fecha, String nif, int grupo, int tickets) {
+		PedidoCompra pedido = new PedidoCompra(fecha, nif, grupo, tickets);
+		Integer idConcierto = IndiceConciertos.getInstance().buscar(grupo, fecha);
+		if (idConcierto != null && RegistroAgotados.getInstance().sinTickets(idConcierto, tickets)) {
+			return CompletableFuture.completedFuture(ResultadoCompra.rechazada(pedido, IncidentError.NOT_AVAILABLE_TICKETS));
+		}
+
+		Solicitud solicitud = new Solicitud(pedido);
+		// Se encola dentro de compute para que la cola no se retire a la vez (ver retirar)
+		Cola cola = colas.compute(grupo + "@" + fecha.getTime(), (clave, actual) -> {
+			Cola nueva = actual != null ? actual : new Cola(clave);
+			nueva.pendientes.add(solicitud);
+			solicitud.posicion = nueva.tamano.incrementAndGet();
+			return nueva;
+		});
+		if (solicitud.posicion == lote) {
+			ejecutor.execute(() -> vaciar(cola)); // Lote completo: no espera a la ventana
+		} else if (solicitud.posicion < lote && cola.programada.compareAndSet(false, true)) {
+			temporizador.schedule(() -> {
+				cola.programada.set(false);
+				ejecutor.execute(() -> vaciar(cola));
+			}, ventana, TimeUnit.MILLISECONDS);
+		}
+		return solicitud.futuro;
+	}
+
+	/**
+	 * Envía las compras pendientes de un concierto en lotes hasta vaciar su cola. Si ya hay un
+	 * hilo enviando lotes del concierto no hace nada: ese hilo recogerá las compras nuevas.
+	 * 
+	 * @param cola Cola del concierto
+	 */
+	private void vaciar(Cola cola) {
+		// Se vuelve a comprobar al liberar, por si llegó una compra mientras se terminaba el último lote
+		while (!cola.pendientes.isEmpty() && cola.enCurso.compareAndSet(false, true)) {
+			try {
+				List<Solicitud> solicitudes = tomar(cola);
+				while (!solicitudes.isEmpty()) {
+					enviar(solicitudes);
+					solicitudes = tomar(cola);
+				}
+			} finally {
+				cola.enCurso.set(false);
+			}
+		}
+		retirar(cola);
+	}
+
+	/**
+	 * Retira la cola del mapa si está vacía, sin lotes en curso y sin ventana abierta. Las compras
+	 * se encolan dentro de compute sobre la misma clave, así que no se puede perder ninguna:
+	 * la siguiente compra del concierto crea una cola nueva.
+	 * 
+	 * @param cola Cola del concierto
+	 */
+	private void retirar(Cola cola) {
+		colas.computeIfPresent(cola.clave, (clave, actual) -> actual == cola && cola.pendientes.isEmpty()
+				&& !cola.enCurso.get() && !cola.programada.get() ? null : actual);
+	}
+
+	/**
+	 * Saca de la cola hasta un lote de compras, en orden de llegada.
+	 */
+	private List<Solicitud> tomar(Cola cola) {
+		List<Solicitud> solicitudes = new ArrayList<>();
+		Solicitud solicitud;
+		while (solicitudes.size() < lote && (solicitud = cola.pendientes.poll()) != null) {
+			cola.tamano.decrementAndGet();
+			solicitudes.add(solicitud);
+		}
+		return solicitudes;
+	}
+
+	/**
+	 * Realiza un lote en una transacción y completa el futuro de cada compra con su resultado.
+	 * Si la transacción falla, todas las compras del lote terminan con la misma excepción.
+	 */
+	private void enviar(List<Solicitud> solicitudes) {
+		List<PedidoCompra> lotePedidos = new ArrayList<>(solicitudes.size());
+		for (Solicitud solicitud : solicitudes) {
+			lotePedidos.add(solicitud.pedido);
+		}
+		lotes.increment();
+		pedidos.increment(solicitudes.size());
+		try {
+			List<ResultadoCompra> resultados = servicio.comprarLote(lotePedidos);
+			for (int i = 0; i < solicitudes.size(); i++) {
+				solicitudes.get(i).futuro.complete(resultados.get(i));
+			}
+		} catch (Exception e) {
+			for (Solicitud solicitud : solicitudes) {
+				solicitud.futuro.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Deja de aceptar compras, envía las pendientes y espera a que terminen.
+	 */
+	@Override
+	public void close() {
+		temporizador.shutdown();
+		try {
+			temporizador.awaitTermination(1, TimeUnit.MINUTES); // Cierra las ventanas abiertas
+			for (Cola cola : colas.values()) {
+				ejecutor.execute(() -> vaciar(cola));
+			}
+			ejecutor.shutdown();
+			ejecutor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Compras pendientes de un concierto.
+	 */
+	private static final class Cola {
+
+		/** Grupo y fecha del concierto. */
+		private final String clave;
+
+		private final Queue<Solicitud> pendientes = new ConcurrentLinkedQueue<>();
+
+		/** Número de compras pendientes, ConcurrentLinkedQueue.size() recorre la cola. */
+		private final AtomicInteger tamano = new AtomicInteger();
+
+		/** Hay una ventana abierta. */
+		private final AtomicBoolean programada = new AtomicBoolean();
+
+		/** Hay un hilo enviando lotes del concierto. */
+		private final AtomicBoolean enCurso = new AtomicBoolean();
+
+		Cola(String clave) {
+			this.clave = clave;
+		}
+	}
+
+	/**
+	 * Compra encolada y el futuro de quien la pidió.
+	 */
+	private static final class Solicitud {
+
+		private final PedidoCompra pedido;
+		private final CompletableFuture<ResultadoCompra> futuro = new CompletableFuture<>();
+
+		/** Compras pendientes en la cola al encolar esta, incluida ella. */
+		private int posicion;
+
+		Solicitud(PedidoCompra pedido) {
+			this.pedido = pedido;
+		}
+	}
+}
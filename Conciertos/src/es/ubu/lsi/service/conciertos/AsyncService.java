@@ -0,0 +1,170 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.service.PersistenceException;
+import es.ubu.lsi.service.PersistenceFactorySingleton;
+import es.ubu.lsi.service.VirtualThreads;
+
+/**
+ * Fachada asíncrona de {@link Service}: cada llamada devuelve un CompletableFuture y se ejecuta
+ * en un hilo virtual por tarea (Java 21 o posterior) o, si no hay hilos virtuales, en un conjunto
+ * fijo de hilos de plataforma.
+ * 
+ * Como mucho se ejecutan a la vez tantas transacciones como conexiones tiene el pool
+ * (o las indicadas en la propiedad <code>conciertos.async.concurrencia</code>); el resto espera
+ * en memoria en un semáforo en lugar de bloquearse pidiendo una conexión JDBC.
+ * Las compras toman el permiso después de entrar en la {@link AdmisionCompras} de su concierto,
+ * así que las que esperan por un concierto muy demandado no ocupan permisos y las de otros
+ * conciertos siguen en paralelo. Sin hilos virtuales las que esperan sí ocupan hilos del conjunto fijo.
+ * Qué conciertos se serializan lo decide el servicio, que marca en la admisión los repartidos en
+ * fracciones para que sus compras no esperen.
+ * Los futuros fallidos terminan con la misma excepción que lanzaría el servicio.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class AsyncService implements AutoCloseable {
+
+	/** Propiedad de sistema con el número máximo de transacciones simultáneas. */
+	public static final String PROPIEDAD_CONCURRENCIA = "conciertos.async.concurrencia";
+
+	/** Servicio síncrono. */
+	private final Service servicio;
+
+	/** Ejecutor de las llamadas. */
+	private final ExecutorService ejecutor;
+
+	/** Permisos de ejecución, uno por transacción simultánea. */
+	private final Semaphore permisos;
+
+	/** Admisión de las compras, la misma que usa el servicio. */
+	private final AdmisionCompras admision = AdmisionCompras.getInstance();
+
+	/**
+	 * Constructor con la concurrencia por defecto: el tamaño máximo del pool de conexiones.
+	 * 
+	 * @param servicio Servicio síncrono, seguro para hilos
+	 */
+	public AsyncService(Service servicio) {
+		this(servicio, Integer.getInteger(PROPIEDAD_CONCURRENCIA, PersistenceFactorySingleton.getMaxPoolSize()));
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param servicio Servicio síncrono, seguro para hilos
+	 * @param concurrencia Número máximo de transacciones simultáneas
+	 */
+	public AsyncService(Service servicio, int concurrencia) {
+		if (concurrencia < 1) {
+			throw new IllegalArgumentException("Concurrencia no válida: " + concurrencia);
+		}
+		this.servicio = servicio;
+		this.permisos = new Semaphore(concurrencia, true);
+		this.ejecutor = VirtualThreads.isAvailable() ? VirtualThreads.newThreadPerTaskExecutor()
+				: Executors.newFixedThreadPool(concurrencia);
+	}
+
+	/**
+	 * Alta asíncrona de una compra (ver {@link Service#comprar(Date, String, int, int)}).
+	 * 
+	 * @param fecha fecha
+	 * @param nif nif
+	 * @param grupo identificador del grupo
+	 * @param tickets cantidad de tickets
+	 * @return futuro que termina al cometer la compra
+	 */
+	public CompletableFuture<Void> comprar(Date fecha, String nif, int grupo, int tickets) {
+		return enviar(() -> admision.ejecutar(grupo, fecha, () -> conPermiso(() -> {
+			servicio.comprar(fecha, nif, grupo, tickets);
+			return null;
+		})));
+	}
+
+	/**
+	 * Desactivación asíncrona de un grupo (ver {@link Service#desactivar(int)}).
+	 * 
+	 * @param grupo identificador del grupo
+	 * @return futuro que termina al cometer la desactivación
+	 */
+	public CompletableFuture<Void> desactivar(int grupo) {
+		return enviar(() -> conPermiso(() -> {
+			servicio.desactivar(grupo);
+			return null;
+		}));
+	}
+
+	/**
+	 * Consulta asíncrona de los grupos (ver {@link Service#consultarGrupos()}).
+	 * 
+	 * @return futuro con los grupos
+	 */
+	public CompletableFuture<List<Grupo>> consultarGrupos() {
+		return enviar(() -> conPermiso(servicio::consultarGrupos));
+	}
+
+	/**
+	 * Ejecuta una llamada en el ejecutor.
+	 * 
+	 * @param llamada Llamada al servicio
+	 * @param <T> Tipo del resultado
+	 * @return Futuro con el resultado o la excepción de la llamada
+	 */
+	private <T> CompletableFuture<T> enviar(Transaccion<T> llamada) {
+		CompletableFuture<T> futuro = new CompletableFuture<>();
+		ejecutor.execute(() -> {
+			try {
+				futuro.complete(llamada.ejecutar());
+			} catch (Throwable e) {
+				futuro.completeExceptionally(e);
+				if (e instanceof Error) {
+					throw (Error) e;
+				}
+			}
+		});
+		return futuro;
+	}
+
+	/**
+	 * Ejecuta una llamada con un permiso, esperándolo antes.
+	 * 
+	 * @param llamada Llamada al servicio
+	 * @param <T> Tipo del resultado
+	 * @return Resultado de la llamada
+	 * @throws PersistenceException si la llamada falla
+	 * @throws IllegalStateException si se interrumpe la espera
+	 */
+	private <T> T conPermiso(Transaccion<T> llamada) throws PersistenceException {
+		try {
+			permisos.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrumpida la espera de un permiso", e);
+		}
+		try {
+			return llamada.ejecutar();
+		} finally {
+			permisos.release();
+		}
+	}
+
+	/**
+	 * Deja de aceptar llamadas y espera a que terminen las pendientes.
+	 */
+	@Override
+	public void close() {
+		ejecutor.shutdown();
+		try {
+			ejecutor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.ubu.lsi.model.conciertos.CompraPendiente;
+
+/**
+ * Diario local de solo añadir con las compras aceptadas por el inventario en memoria y todavía
+ * no escritas en la base de datos. Cada compra es una línea
+ * <code>idcompra;nif;idconcierto;tickets</code> y se escribe antes de confirmarla al cliente,
+ * así que tras una caída del proceso basta con reproducir el diario al arrancar.
+ *
+ * El diario se divide en segmentos; cuando todas las compras de un segmento cerrado están
+ * en la base de datos se borra el segmento (punto de control). Con sincronización cada
+ * anotación fuerza la escritura a disco y sobrevive también a una caída del sistema operativo.
+ * Las compras que no se pueden escribir en la base de datos se aparcan en un fichero aparte, que
+ * no se borra al reiniciar el diario, para reintentarlas en el siguiente arranque.
+ * No es seguro para hilos: quien lo usa serializa las llamadas.
+ *
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class DiarioCompras implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DiarioCompras.class);
+
+	/** Prefijo de los ficheros de segmento. */
+	private static final String PREFIJO = "compras-";
+
+	/** Extensión de los ficheros de segmento. */
+	private static final String EXTENSION = ".diario";
+
+	/** Fichero de las compras aparcadas. */
+	private static final String APARCADAS = "aparcadas" + EXTENSION;
+
+	private final Path directorio;
+	private final boolean sincronizar;
+	private final long tamSegmento;
+
+	/** Segmentos cerrados con el número de su última anotación, del más antiguo al más reciente. */
+	private final Deque<Cerrado> cerrados = new ArrayDeque<>();
+
+	/** Segmento actual. */
+	private FileChannel canal;
+	private Path segmento;
+	private long numeroSegmento;
+
+	/** Anotaciones desde el último reinicio. */
+	private long anotaciones;
+
+	/**
+	 * Constructor del diario. No abre ningún segmento hasta {@link #reiniciar()}.
+	 *
+	 * @param directorio Directorio de los segmentos, se crea si no existe
+	 * @param sincronizar Si se fuerza la escritura a disco en cada anotación
+	 * @param tamSegmento Tamaño en bytes a partir del cual se abre un segmento nuevo
+	 * @throws IOException si no se puede crear el directorio
+	 */
+	public DiarioCompras(Path directorio, boolean sincronizar, long tamSegmento) throws IOException {
+		this.directorio = Files.createDirectories(directorio);
+		this.sincronizar = sincronizar;
+		this.tamSegmento = tamSegmento;
+	}
+
+	/**
+	 * Lee las compras de todos los segmentos existentes, en orden de anotación. Una línea sin
+	 * su fin de línea (la última de un segmento si el proceso cayó mientras se escribía) no llegó
+	 * a confirmarse al cliente y se descarta.
+	 *
+	 * @return Compras anotadas
+	 * @throws IOException si no se puede leer un segmento
+	 */
+	public List<CompraPendiente> leer() throws IOException {
+		List<CompraPendiente> compras = new ArrayList<>();
+		for (Path fichero : segmentos()) {
+			leer(fichero, compras);
+		}
+		return compras;
+	}
+
+	/**
+	 * Lee las compras aparcadas.
+	 *
+	 * @return Compras aparcadas, vacía si no hay
+	 * @throws IOException si no se puede leer el fichero
+	 */
+	public List<CompraPendiente> leerAparcadas() throws IOException {
+		List<CompraPendiente> compras = new ArrayList<>();
+		Path fichero = directorio.resolve(APARCADAS);
+		if (Files.exists(fichero)) {
+			leer(fichero, compras);
+		}
+		return compras;
+	}
+
+	/**
+	 * Añade compras al fichero de aparcadas, forzando la escritura a disco. Se llama antes de
+	 * confirmar las anotaciones que las contienen, para que no se pierdan al borrar su segmento.
+	 *
+	 * @param compras Compras que no se han podido escribir en la base de datos
+	 * @throws IOException si no se puede escribir
+	 */
+	public void aparcar(List<CompraPendiente> compras) throws IOException {
+		try (FileChannel aparcadas = FileChannel.open(directorio.resolve(APARCADAS), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			escribir(aparcadas, compras);
+			aparcadas.force(false);
+		}
+	}
+
+	/**
+	 * Sustituye las compras aparcadas de forma atómica, por ejemplo tras reintentarlas al arrancar.
+	 *
+	 * @param compras Compras que siguen aparcadas
+	 * @throws IOException si no se puede escribir o sustituir el fichero
+	 */
+	public void reemplazarAparcadas(List<CompraPendiente> compras) throws IOException {
+		Path fichero = directorio.resolve(APARCADAS);
+		if (compras.isEmpty()) {
+			Files.deleteIfExists(fichero);
+			return;
+		}
+		Path temporal = directorio.resolve(APARCADAS + ".tmp");
+		try (FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			escribir(nuevo, compras);
+			nuevo.force(false);
+		}
+		Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Añade a la lista las compras de un fichero. Una línea sin su fin de línea no llegó a
+	 * confirmarse y se descarta.
+	 */
+	private static void leer(Path fichero, List<CompraPendiente> compras) throws IOException {
+		String contenido = new String(Files.readAllBytes(fichero), StandardCharsets.UTF_8);
+		int fin = contenido.lastIndexOf('\n') + 1;
+		if (fin < contenido.length()) {
+			logger.warn("Anotación incompleta descartada en {}: {}", fichero.getFileName(), contenido.substring(fin));
+		}
+		for (String linea : contenido.substring(0, fin).split("\n")) {
+			if (linea.isEmpty()) {
+				continue;
+			}
+			String[] campos = linea.split(";");
+			try {
+				compras.add(new CompraPendiente(Integer.parseInt(campos[0]), campos[1], Integer.parseInt(campos[2]),
+						Integer.parseInt(campos[3])));
+			} catch (RuntimeException e) {
+				logger.warn("Línea descartada en {}: {}", fichero.getFileName(), linea);
+			}
+		}
+	}
+
+	/**
+	 * Borra todos los segmentos y abre uno nuevo. Solo se debe llamar cuando todas las compras
+	 * anotadas están en la base de datos.
+	 *
+	 * @throws IOException si no se pueden borrar o crear los segmentos
+	 */
+	public void reiniciar() throws IOException {
+		if (canal != null) {
+			canal.close();
+		}
+		List<Path> existentes = segmentos();
+		numeroSegmento = existentes.isEmpty() ? 0 : numero(existentes.get(existentes.size() - 1));
+		for (Path fichero : existentes) {
+			Files.delete(fichero);
+		}
+		cerrados.clear();
+		anotaciones = 0;
+		abrirSegmento();
+	}
+
+	/**
+	 * Añade una compra al final del diario.
+	 *
+	 * @param compra Compra aceptada
+	 * @return Número de la anotación desde el último reinicio, empezando en 1
+	 * @throws IOException si no se puede escribir
+	 */
+	public long anotar(CompraPendiente compra) throws IOException {
+		if (canal.size() >= tamSegmento) {
+			canal.close();
+			cerrados.addLast(new Cerrado(segmento, anotaciones));
+			abrirSegmento();
+		}
+		escribir(canal, Collections.singletonList(compra));
+		if (sincronizar) {
+			canal.force(false);
+		}
+		return ++anotaciones;
+	}
+
+	/**
+	 * Borra los segmentos cerrados cuyas compras ya están todas en la base de datos.
+	 *
+	 * @param escritas Número de anotaciones ya escritas en la base de datos, en orden
+	 * @throws IOException si no se puede borrar un segmento
+	 */
+	public void confirmar(long escritas) throws IOException {
+		while (!cerrados.isEmpty() && cerrados.peekFirst().ultima <= escritas) {
+			Files.deleteIfExists(cerrados.removeFirst().fichero);
+		}
+	}
+
+	/**
+	 * Cierra el segmento actual sin borrarlo.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (canal != null) {
+			canal.close();
+		}
+	}
+
+	/**
+	 * Escribe una línea por compra en el canal.
+	 */
+	private static void escribir(FileChannel destino, List<CompraPendiente> compras) throws IOException {
+		StringBuilder lineas = new StringBuilder();
+		for (CompraPendiente compra : compras) {
+			lineas.append(compra.getIdcompra()).append(';').append(compra.getNif()).append(';')
+					.append(compra.getIdconcierto()).append(';').append(compra.getTickets()).append('\n');
+		}
+		ByteBuffer contenido = ByteBuffer.wrap(lineas.toString().getBytes(StandardCharsets.UTF_8));
+		while (contenido.hasRemaining()) {
+			destino.write(contenido);
+		}
+	}
+
+	/**
+	 * Abre el siguiente segmento.
+	 */
+	private void abrirSegmento() throws IOException {
+		numeroSegmento++;
+		segmento = directorio.resolve(String.format("%s%010d%s", PREFIJO, numeroSegmento, EXTENSION));
+		canal = FileChannel.open(segmento, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Segmentos del directorio, del más antiguo al más reciente.
+	 */
+	private List<Path> segmentos() throws IOException {
+		List<Path> ficheros = new ArrayList<>();
+		try (DirectoryStream<Path> contenido = Files.newDirectoryStream(directorio, PREFIJO + "*" + EXTENSION)) {
+			for (Path fichero : contenido) {
+				ficheros.add(fichero);
+			}
+		}
+		Collections.sort(ficheros); // El número de segmento tiene ancho fijo
+		return ficheros;
+	}
+
+	/**
+	 * Número de un segmento a partir de su nombre.
+	 */
+	private static long numero(Path fichero) {
+		String nombre = fichero.getFileName().toString();
+		return Long.parseLong(nombre.substring(PREFIJO.length(), nombre.length() - EXTENSION.length()));
+	}
+
+	/**
+	 * Segmento cerrado y número de su última anotación.
+	 */
+	private static final class Cerrado {
+
+		private final Path fichero;
+		private final long ultima;
+
+		Cerrado(Path fichero, long ultima) {
+			this.fichero = fichero;
+			this.ultima = ultima;
+		}
+	}
+}
@@ -18,7 +18,9 @@ public enum IncidentError {
 	NOT_EXIST_MUSIC_GROUP("No existe grupo"),
 	NOT_EXIST_CLIENT("No existe cliente"),
 	NOT_AVAILABLE_TICKETS("Número de tickts no disponible"),
-	NOT_EXIST_CONCERT("No existe el concierto para la fecha y el grupo indicado");	
+	NOT_EXIST_CONCERT("No existe el concierto para la fecha y el grupo indicado"),
+	NOT_ACTIVE_MUSIC_GROUP("El grupo no está activo"),
+	CONCERT_IN_INVENTORY("El concierto se vende con el inventario de tickets en memoria");
 	
 	
 
@@ -1,5 +1,8 @@
 package es.ubu.lsi.service.conciertos;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import es.ubu.lsi.service.PersistenceException;
 
 /**
@@ -20,6 +23,15 @@ public class IncidentException extends PersistenceException {
 	/** Default. */
 	private static final long serialVersionUID = 1L;
 
+	/** Preallocated stackless exception for each error code. */
+	private static final Map<IncidentError, IncidentException> REJECTIONS = new EnumMap<>(IncidentError.class);
+
+	static {
+		for (IncidentError error : IncidentError.values()) {
+			REJECTIONS.put(error, new IncidentException(error, false));
+		}
+	}
+
 	/**
 	 * Constructor.
 	 * 
@@ -94,6 +106,31 @@ public class IncidentException extends PersistenceException {
 		setError(error);
 	}
 
+	/**
+	 * Constructor of the stackless exceptions.
+	 * 
+	 * @param error
+	 *            error code
+	 * @param writableStackTrace
+	 *            false to skip filling in the stack trace
+	 */
+	private IncidentException(IncidentError error, boolean writableStackTrace) {
+		super(error.getText(), null, writableStackTrace);
+		setError(error);
+	}
+
+	/**
+	 * Gets the shared exception for a business rejection. It has no stack trace, since the
+	 * error code already tells where it comes from, so throwing it costs no more than a return.
+	 * 
+	 * @param error
+	 *            error code
+	 * @return preallocated exception
+	 */
+	public static IncidentException of(IncidentError error) {
+		return REJECTIONS.get(error);
+	}
+
 	/**
 	 * Gets error code.
 	 * 
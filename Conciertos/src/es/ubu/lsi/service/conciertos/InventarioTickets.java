@@ -0,0 +1,815 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockTimeoutException;
+import javax.persistence.PessimisticLockException;
+import javax.persistence.QueryTimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.ubu.lsi.dao.DAOCliente;
+import es.ubu.lsi.dao.DAOCompra;
+import es.ubu.lsi.dao.DAOConcierto;
+import es.ubu.lsi.dao.DAOGrupo;
+import es.ubu.lsi.dao.RegistroAgotados;
+import es.ubu.lsi.model.conciertos.Cliente;
+import es.ubu.lsi.model.conciertos.Compra;
+import es.ubu.lsi.model.conciertos.CompraPendiente;
+import es.ubu.lsi.model.conciertos.Concierto;
+import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.service.PersistenceException;
+import es.ubu.lsi.service.PersistenceService;
+import es.ubu.lsi.service.metrics.Counter;
+import es.ubu.lsi.service.metrics.MetricRegistry;
+
+/**
+ * Inventario de tickets en memoria con escritura diferida, para ventas masivas.
+ *
+ * Carga los tickets de cada concierto la primera vez que se compra y a partir de entonces
+ * acepta o rechaza las compras con un descuento compare-and-set sobre un contador en memoria,
+ * sin abrir una sesión. Cada compra aceptada recibe su PK de un bloque de SEQ_COMPRA, se anota
+ * en el {@link DiarioCompras} y un hilo la inserta después en la base de datos, en lotes de
+ * <code>conciertos.inventario.lote</code> compras (500 por defecto) junto con el descuento de los
+ * tickets de sus conciertos. Al arrancar se reproducen las compras del diario que no llegaron a
+ * escribirse; la inserción comprueba las PK, así que reproducir dos veces no duplica compras.
+ *
+ * Un lote que falla por un error transitorio (conexión, bloqueo, timeout) se reintenta hasta
+ * <code>conciertos.inventario.intentos</code> veces (5 por defecto). Si falla por otro error se
+ * escriben sus compras una a una, y las que no se pueden escribir se aparcan: salen de la
+ * cola, se guardan en el diario de aparcadas, se cuentan en <code>inventario.descuadres</code>
+ * y se vuelven a intentar al arrancar. Así una compra imposible no bloquea a las demás. También
+ * se aparcan, sin escribirlas, las de un concierto que en la base de datos ya no tiene los tickets
+ * vendidos en memoria.
+ *
+ * El diario está en el directorio de la propiedad <code>conciertos.inventario.diario</code> y,
+ * con <code>conciertos.inventario.sincronizar</code>, se fuerza a disco en cada compra.
+ * Mientras un concierto esté en el inventario sus compras solo se pueden hacer con él: el
+ * {@link ServiceImpl} rechaza con {@link IncidentError#CONCERT_IN_INVENTORY} las compras de los
+ * conciertos cargados en un inventario abierto y la desactivación de sus grupos, que se deben
+ * desactivar con {@link #desactivar(int)}, que antes escribe sus compras pendientes.
+ * {@link #conciliar()} comprueba que la base de datos y la memoria coinciden.
+ *
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class InventarioTickets extends PersistenceService implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(InventarioTickets.class);
+
+	/** Propiedad de sistema con el directorio del diario. */
+	public static final String PROPIEDAD_DIARIO = "conciertos.inventario.diario";
+
+	/** Propiedad de sistema que fuerza el diario a disco en cada compra. */
+	public static final String PROPIEDAD_SINCRONIZAR = "conciertos.inventario.sincronizar";
+
+	/** Propiedad de sistema con el número máximo de compras por transacción de escritura. */
+	public static final String PROPIEDAD_LOTE = "conciertos.inventario.lote";
+
+	/** Propiedad de sistema con los intentos de escritura de un lote ante errores transitorios. */
+	public static final String PROPIEDAD_INTENTOS = "conciertos.inventario.intentos";
+
+	/** Tamaño de cada segmento del diario. */
+	private static final long TAM_SEGMENTO = 8L * 1024 * 1024;
+
+	/** Espera máxima al hilo de escritura al cerrar, en milisegundos. */
+	private static final long ESPERA_CIERRE = TimeUnit.MINUTES.toMillis(1);
+
+	/** Conciertos cargados en los inventarios abiertos, con la PK de su grupo. */
+	private static final Map<Integer, Integer> GESTIONADOS = new ConcurrentHashMap<>();
+
+	/** Registro agregado de los rechazos de negocio. */
+	private static final RegistroRechazos rechazos = RegistroRechazos.desdePropiedades();
+
+	/** Servicio con el que se desactivan los grupos. */
+	private final Service servicio;
+
+	/** Compras por transacción de escritura. */
+	private final int lote;
+
+	/** Intentos de escritura de un lote ante errores transitorios. */
+	private final int intentos;
+
+	/** Diario de compras; su monitor protege también {@link #anotadas} y el cierre. */
+	private final DiarioCompras diario;
+
+	/** Compras anotadas y pendientes de escribir, en orden de anotación. */
+	private final BlockingQueue<CompraPendiente> cola = new LinkedBlockingQueue<>();
+
+	/** Existencias por grupo y fecha. */
+	private final Map<String, Existencias> porClave = new ConcurrentHashMap<>();
+
+	/** Existencias por PK del concierto. */
+	private final Map<Integer, Existencias> porId = new ConcurrentHashMap<>();
+
+	/** Clientes que se sabe que existen. */
+	private final Set<String> clientes = ConcurrentHashMap.newKeySet();
+
+	/** Grupos que se están desactivando, cuyos conciertos no se pueden cargar. */
+	private final Set<Integer> desactivando = new HashSet<>();
+
+	/** Lo tiene el hilo de escritura mientras escribe un lote, para conciliar sin escrituras en curso. */
+	private final ReentrantLock escritor = new ReentrantLock();
+
+	/** Monitor de {@link #escritas}. */
+	private final Object escritura = new Object();
+
+	/** Monitor del bloque de PKs. */
+	private final Object bloque = new Object();
+
+	private final Counter descuadres = MetricRegistry.getInstance().counter("inventario.descuadres");
+
+	private final Thread hilo;
+
+	private long anotadas;
+	private long escritas;
+	private int siguienteId;
+	private int finBloque;
+	private boolean cerrado;
+
+	/** No se han podido guardar compras aparcadas: el diario no se confirma ni se reinicia. */
+	private boolean conservarDiario;
+
+	/**
+	 * Constructor del inventario. Escribe en la base de datos las compras que queden en el diario
+	 * y arranca el hilo de escritura.
+	 *
+	 * @param servicio Servicio con el que se desactivan los grupos
+	 * @param directorio Directorio del diario
+	 * @param sincronizar Si se fuerza el diario a disco en cada compra
+	 * @param lote Número máximo de compras por transacción de escritura
+	 * @param intentos Intentos de escritura de un lote ante errores transitorios
+	 * @throws PersistenceException si no se puede abrir el diario
+	 */
+	public InventarioTickets(Service servicio, Path directorio, boolean sincronizar, int lote, int intentos)
+			throws PersistenceException {
+		if (lote < 1) {
+			throw new IllegalArgumentException("Tamaño de lote no válido: " + lote);
+		}
+		if (intentos < 1) {
+			throw new IllegalArgumentException("Número de intentos no válido: " + intentos);
+		}
+		this.servicio = servicio;
+		this.lote = lote;
+		this.intentos = intentos;
+		try {
+			this.diario = new DiarioCompras(directorio, sincronizar, TAM_SEGMENTO);
+			// Primero las aparcadas, que son las más antiguas
+			List<CompraPendiente> pendientes = diario.leerAparcadas();
+			pendientes.addAll(diario.leer());
+			List<CompraPendiente> aparcadas = new ArrayList<>();
+			for (int i = 0; i < pendientes.size(); i += lote) {
+				aparcadas.addAll(escribirOAparcar(pendientes.subList(i, Math.min(i + lote, pendientes.size()))));
+			}
+			if (!pendientes.isEmpty()) {
+				logger.info("Reproducidas {} compras del diario", pendientes.size() - aparcadas.size());
+			}
+			if (!aparcadas.isEmpty()) {
+				descuadres.increment(aparcadas.size());
+				logger.error("Siguen aparcadas {} compras del diario que no se pueden escribir", aparcadas.size());
+			}
+			diario.reemplazarAparcadas(aparcadas);
+			diario.reiniciar();
+		} catch (IOException e) {
+			throw new PersistenceException("No se puede abrir el diario de compras en " + directorio, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("Reproducción del diario de compras interrumpida", e);
+		}
+		MetricRegistry.getInstance().gauge("inventario.pendientes", cola::size);
+		hilo = new Thread(this::escribirPendientes, "inventario-escritura");
+		hilo.setDaemon(true);
+		hilo.start();
+	}
+
+	/**
+	 * Crea el inventario a partir de las propiedades de sistema.
+	 *
+	 * @param servicio Servicio con el que se desactivan los grupos
+	 * @return Inventario configurado
+	 * @throws PersistenceException si no se puede abrir el diario
+	 */
+	public static InventarioTickets desdePropiedades(Service servicio) throws PersistenceException {
+		return new InventarioTickets(servicio,
+				Paths.get(System.getProperty(PROPIEDAD_DIARIO, "conciertos-diario")),
+				Boolean.getBoolean(PROPIEDAD_SINCRONIZAR), Integer.getInteger(PROPIEDAD_LOTE, 500),
+				Integer.getInteger(PROPIEDAD_INTENTOS, 5));
+	}
+
+	/**
+	 * Indica si un concierto está cargado en algún inventario abierto, que es el único que
+	 * puede vender sus tickets.
+	 *
+	 * @param idConcierto PK del concierto
+	 * @return true si lo gestiona un inventario
+	 */
+	static boolean gestionaConcierto(int idConcierto) {
+		return GESTIONADOS.containsKey(idConcierto);
+	}
+
+	/**
+	 * Indica si algún concierto de un grupo está cargado en un inventario abierto, que es el
+	 * único que puede desactivarlo.
+	 *
+	 * @param grupo PK del grupo
+	 * @return true si lo gestiona un inventario
+	 */
+	static boolean gestionaGrupo(int grupo) {
+		return GESTIONADOS.containsValue(grupo);
+	}
+
+	/**
+	 * Compra tickets del concierto de un grupo en una fecha. Salvo la primera compra de cada
+	 * concierto y cliente y una de cada {@link DAOCompra#ID_BLOCK_SIZE}, que consultan la base
+	 * de datos, no abre ninguna sesión.
+	 *
+	 * @param fecha Fecha del concierto
+	 * @param nif NIF del cliente
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param tickets Cantidad de tickets a comprar
+	 * @return PK de la compra, que se escribirá en la base de datos en segundo plano
+	 * @throws PersistenceException si se rechaza la compra o no se puede anotar en el diario
+	 */
+	public int comprar(Date fecha, String nif, int grupo, int tickets) throws PersistenceException {
+		Existencias existencias = existencias(grupo, fecha);
+		comprobarCliente(nif);
+		if (!existencias.reservar(tickets)) {
+			throw rechazar(existencias.cerrado ? IncidentError.NOT_ACTIVE_MUSIC_GROUP : IncidentError.NOT_AVAILABLE_TICKETS);
+		}
+		CompraPendiente compra;
+		boolean anotada = false;
+		try {
+			compra = new CompraPendiente(siguienteId(), nif, existencias.idconcierto, tickets);
+			synchronized (diario) {
+				if (cerrado || existencias.cerrado) {
+					throw rechazar(IncidentError.NOT_ACTIVE_MUSIC_GROUP);
+				}
+				diario.anotar(compra);
+				anotadas++;
+				cola.add(compra);
+				anotada = true;
+			}
+		} catch (IOException e) {
+			throw new PersistenceException("No se puede anotar la compra en el diario", e);
+		} finally {
+			if (!anotada) {
+				existencias.devolver(tickets); // La compra no se ha confirmado
+			}
+		}
+		RegistroAgotados.getInstance().acotar(existencias.idconcierto, grupo, existencias.disponibles.get());
+		return compra.getIdcompra();
+	}
+
+	/**
+	 * Desactiva un grupo: deja de aceptar compras de sus conciertos, espera a que se escriban
+	 * las pendientes y lo desactiva con el servicio. Sus conciertos salen del inventario.
+	 *
+	 * @param grupo PK del grupo
+	 * @throws PersistenceException si no se pueden escribir las compras pendientes o falla la desactivación
+	 */
+	public void desactivar(int grupo) throws PersistenceException {
+		synchronized (this) {
+			desactivando.add(grupo);
+			synchronized (diario) {
+				for (Existencias existencias : porId.values()) {
+					if (existencias.grupo == grupo) {
+						existencias.cerrado = true;
+					}
+				}
+			}
+		}
+		try {
+			if (!esperar(1, TimeUnit.MINUTES)) {
+				throw new PersistenceException("No se han podido escribir las compras pendientes del grupo " + grupo);
+			}
+			GESTIONADOS.values().removeIf(g -> g == grupo); // El servicio rechaza los grupos gestionados
+			servicio.desactivar(grupo);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("Desactivación interrumpida", e);
+		} finally {
+			synchronized (this) {
+				porClave.values().removeIf(existencias -> existencias.grupo == grupo);
+				porId.values().removeIf(existencias -> existencias.grupo == grupo);
+				GESTIONADOS.values().removeIf(g -> g == grupo);
+				desactivando.remove(grupo);
+			}
+		}
+	}
+
+	/**
+	 * Espera a que se escriban en la base de datos las compras aceptadas hasta ahora.
+	 *
+	 * @param espera Tiempo máximo de espera
+	 * @param unidad Unidad del tiempo de espera
+	 * @return true si se han escrito, false si se ha agotado la espera
+	 * @throws InterruptedException si se interrumpe la espera
+	 */
+	public boolean esperar(long espera, TimeUnit unidad) throws InterruptedException {
+		long objetivo;
+		synchronized (diario) {
+			objetivo = anotadas;
+		}
+		long limite = System.nanoTime() + unidad.toNanos(espera);
+		synchronized (escritura) {
+			while (escritas < objetivo) {
+				long restante = limite - System.nanoTime();
+				if (restante <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(escritura, restante);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Comprueba que los tickets de cada concierto del inventario en la base de datos son los
+	 * disponibles en memoria más los de las compras pendientes de escribir.
+	 *
+	 * @return Descuadres encontrados, vacía si todo coincide
+	 * @throws PersistenceException si falla la consulta
+	 */
+	public List<String> conciliar() throws PersistenceException {
+		List<String> resultado = new ArrayList<>();
+		escritor.lock(); // Sin lotes a medio escribir, los tickets de la base de datos no cambian
+		try {
+			Map<Integer, Integer> enBase = enTransaccion(
+					em -> new DAOConcierto<Concierto, Integer>(em).findTickets(porId.keySet()));
+			for (Existencias existencias : porId.values()) {
+				Integer tickets = enBase.get(existencias.idconcierto);
+				int disponibles = 0;
+				int pendientes = 0;
+				// Una compra puede estar entre el descuento y el apunte de pendientes: se lee otra vez
+				for (int intento = 0; intento < 3; intento++) {
+					disponibles = existencias.disponibles.get();
+					pendientes = existencias.pendientes.get();
+					if (tickets != null && tickets == disponibles + pendientes) {
+						break;
+					}
+					Thread.yield();
+				}
+				if (tickets == null || tickets != disponibles + pendientes) {
+					resultado.add("concierto=" + existencias.idconcierto + " base_datos=" + tickets + " disponibles="
+							+ disponibles + " pendientes=" + pendientes);
+				}
+			}
+		} finally {
+			escritor.unlock();
+		}
+		if (resultado.isEmpty()) {
+			logger.info("Inventario conciliado: {} conciertos", porId.size());
+		}
+		for (String descuadre : resultado) {
+			logger.warn("Descuadre del inventario {}", descuadre);
+		}
+		return resultado;
+	}
+
+	/**
+	 * Deja de aceptar compras y espera a que se escriban las pendientes, como mucho un minuto.
+	 * Si no terminan, se interrumpe el hilo de escritura y las pendientes quedan en el diario.
+	 */
+	@Override
+	public void close() {
+		synchronized (diario) {
+			cerrado = true;
+		}
+		try {
+			hilo.join(ESPERA_CIERRE);
+			if (hilo.isAlive()) {
+				logger.warn("Las compras pendientes no se han escrito en {} ms, quedan en el diario", ESPERA_CIERRE);
+				hilo.interrupt();
+				hilo.join(1000);
+			}
+			synchronized (diario) {
+				boolean escrito;
+				synchronized (escritura) {
+					escrito = escritas == anotadas;
+				}
+				if (escrito && !conservarDiario && !hilo.isAlive()) {
+					diario.reiniciar(); // Todo escrito o aparcado: el diario ya no hace falta
+				}
+				diario.close();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.warn("No se ha podido cerrar el diario de compras: {}", e.getLocalizedMessage());
+		} finally {
+			GESTIONADOS.keySet().removeAll(porId.keySet());
+		}
+	}
+
+	/**
+	 * Bucle del hilo de escritura: escribe las compras de la cola en lotes, aparca las que no se
+	 * pueden escribir y borra los segmentos del diario ya escritos.
+	 */
+	private void escribirPendientes() {
+		while (true) {
+			CompraPendiente primera;
+			try {
+				primera = cola.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return; // Lo pendiente sigue en el diario
+			}
+			if (primera == null) {
+				synchronized (diario) {
+					if (cerrado && cola.isEmpty()) {
+						return;
+					}
+				}
+				continue;
+			}
+			List<CompraPendiente> compras = new ArrayList<>(lote);
+			compras.add(primera);
+			cola.drainTo(compras, lote - 1);
+			List<CompraPendiente> aparcadas;
+			try {
+				aparcadas = escribirOAparcar(compras);
+			} catch (InterruptedException e) {
+				return; // El lote sigue en el diario
+			}
+			synchronized (diario) {
+				if (!aparcadas.isEmpty()) {
+					aparcar(aparcadas);
+				}
+				long total;
+				synchronized (escritura) {
+					escritas += compras.size(); // Las aparcadas también: ya no se esperan
+					total = escritas;
+					escritura.notifyAll();
+				}
+				try {
+					if (!conservarDiario) {
+						diario.confirmar(total);
+					}
+				} catch (IOException e) {
+					logger.warn("No se ha podido borrar un segmento del diario: {}", e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Escribe un lote de compras. Si falla por un error permanente, escribe sus compras una a una
+	 * para quedarse solo con las que fallan.
+	 *
+	 * @param compras Compras del lote
+	 * @return Compras que no se han podido escribir o cuyo concierto no tenía tickets, vacía si
+	 *         se han escrito todas
+	 * @throws InterruptedException si se interrumpe la espera entre intentos
+	 */
+	private List<CompraPendiente> escribirOAparcar(List<CompraPendiente> compras) throws InterruptedException {
+		List<CompraPendiente> fallidas = new ArrayList<>();
+		Exception error = intentar(compras, fallidas);
+		if (error == null) {
+			return fallidas;
+		}
+		if (esTransitorio(error) || compras.size() == 1) {
+			return new ArrayList<>(compras);
+		}
+		for (CompraPendiente compra : compras) {
+			if (intentar(Collections.singletonList(compra), fallidas) != null) {
+				fallidas.add(compra);
+			}
+		}
+		return fallidas;
+	}
+
+	/**
+	 * Intenta escribir un lote, repitiendo los errores transitorios hasta agotar los intentos.
+	 *
+	 * @param compras Compras del lote
+	 * @param sinTickets Donde se añaden, si se escribe el lote, las compras que no se han escrito
+	 *        porque su concierto no tenía tickets
+	 * @return null si se ha escrito, o el último error
+	 * @throws InterruptedException si se interrumpe la espera entre intentos
+	 */
+	private Exception intentar(List<CompraPendiente> compras, List<CompraPendiente> sinTickets)
+			throws InterruptedException {
+		for (int intento = 1;; intento++) {
+			try {
+				sinTickets.addAll(escribir(compras));
+				return null;
+			} catch (PersistenceException | RuntimeException e) {
+				if (!esTransitorio(e) || intento >= intentos) {
+					logger.error("No se ha podido escribir un lote de {} compras (intento {})", compras.size(), intento, e);
+					return e;
+				}
+				logger.warn("Error transitorio escribiendo un lote de {} compras (intento {}): {}", compras.size(),
+						intento, e.getLocalizedMessage());
+				Thread.sleep(Math.min(1000L, 10L << Math.min(intento, 7)));
+			}
+		}
+	}
+
+	/**
+	 * Aparca compras que no se pueden escribir: las guarda en el diario de aparcadas y las quita
+	 * de las pendientes, de modo que {@link #conciliar()} muestra el descuadre. Se llama con el
+	 * monitor del diario.
+	 *
+	 * @param aparcadas Compras a aparcar
+	 */
+	private void aparcar(List<CompraPendiente> aparcadas) {
+		try {
+			diario.aparcar(aparcadas);
+		} catch (IOException e) {
+			// Siguen en los segmentos, que ya no se borran, y se reproducen al arrancar
+			conservarDiario = true;
+			logger.error("No se han podido guardar las compras aparcadas: {}", e.getLocalizedMessage());
+		}
+		for (CompraPendiente compra : aparcadas) {
+			Existencias existencias = porId.get(compra.getIdconcierto());
+			if (existencias != null) {
+				existencias.pendientes.addAndGet(-compra.getTickets());
+			}
+		}
+		descuadres.increment(aparcadas.size());
+		logger.error("Aparcadas {} compras que no se pueden escribir; se reintentarán al arrancar", aparcadas.size());
+	}
+
+	/**
+	 * Indica si un error de escritura es transitorio: de conexión, de bloqueo o de timeout.
+	 *
+	 * @param error Error
+	 * @return true si tiene sentido reintentar
+	 */
+	private static boolean esTransitorio(Throwable error) {
+		for (Throwable causa = error; causa != null; causa = causa.getCause()) {
+			if (causa instanceof SQLTransientException || causa instanceof SQLRecoverableException
+					|| causa instanceof SQLNonTransientConnectionException || causa instanceof LockTimeoutException
+					|| causa instanceof PessimisticLockException || causa instanceof QueryTimeoutException) {
+				return true;
+			}
+			if (causa instanceof SQLException) {
+				String estado = ((SQLException) causa).getSQLState();
+				if (estado != null && (estado.startsWith("08") || estado.startsWith("40"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Escribe un lote de compras en una transacción: descuenta los tickets de las que no existen,
+	 * una sentencia por concierto, e inserta las de los conciertos que tenían tickets suficientes.
+	 * Las de un concierto sin suficientes (vendido fuera del inventario) no se escriben. Después
+	 * resta las compras escritas de las pendientes.
+	 *
+	 * @param compras Compras del lote
+	 * @return Compras no escritas por falta de tickets, que se deben aparcar
+	 * @throws PersistenceException si falla la transacción
+	 */
+	private List<CompraPendiente> escribir(List<CompraPendiente> compras) throws PersistenceException {
+		escritor.lock();
+		try {
+			List<CompraPendiente> sinTickets = enTransaccion(em -> {
+				DAOCompra<Compra, Integer> compraDAO = new DAOCompra<Compra, Integer>(em);
+				List<CompraPendiente> nuevas = compraDAO.findAbsent(compras);
+				Map<Integer, Integer> vendidos = new LinkedHashMap<>();
+				for (CompraPendiente compra : nuevas) {
+					vendidos.merge(compra.getIdconcierto(), compra.getTickets(), Integer::sum);
+				}
+				DAOConcierto<Concierto, Integer> conciertoDAO = new DAOConcierto<Concierto, Integer>(em);
+				Set<Integer> descuadrados = new HashSet<>();
+				for (Map.Entry<Integer, Integer> venta : vendidos.entrySet()) {
+					if (conciertoDAO.decrementTickets(venta.getKey(), venta.getValue()) == 0) {
+						descuadrados.add(venta.getKey());
+						logger.error("Descuadre: el concierto {} no tiene los {} tickets vendidos en memoria",
+								venta.getKey(), venta.getValue());
+					}
+				}
+				List<CompraPendiente> insertar = new ArrayList<>(nuevas.size());
+				List<CompraPendiente> rechazadas = new ArrayList<>();
+				for (CompraPendiente compra : nuevas) {
+					(descuadrados.contains(compra.getIdconcierto()) ? rechazadas : insertar).add(compra);
+				}
+				compraDAO.insertAll(insertar);
+				return rechazadas;
+			});
+			Set<CompraPendiente> noEscritas = Collections.newSetFromMap(new IdentityHashMap<>());
+			noEscritas.addAll(sinTickets);
+			for (CompraPendiente compra : compras) {
+				Existencias existencias = porId.get(compra.getIdconcierto());
+				if (existencias != null && !noEscritas.contains(compra)) {
+					existencias.pendientes.addAndGet(-compra.getTickets());
+				}
+			}
+			return sinTickets;
+		} finally {
+			escritor.unlock();
+		}
+	}
+
+	/**
+	 * Devuelve las existencias de un concierto, cargándolas de la base de datos si no están.
+	 *
+	 * @param grupo PK del grupo
+	 * @param fecha Fecha del concierto
+	 * @return Existencias del concierto
+	 * @throws PersistenceException si el grupo o el concierto no existen o el grupo no está activo
+	 */
+	private Existencias existencias(int grupo, Date fecha) throws PersistenceException {
+		String clave = grupo + "@" + fecha.getTime();
+		Existencias existencias = porClave.get(clave);
+		if (existencias != null) {
+			return existencias;
+		}
+		synchronized (this) {
+			existencias = porClave.get(clave);
+			if (existencias != null) {
+				return existencias;
+			}
+			if (desactivando.contains(grupo)) {
+				throw rechazar(IncidentError.NOT_ACTIVE_MUSIC_GROUP);
+			}
+			int idconcierto = enTransaccion(em -> {
+				Grupo grupoOb = new DAOGrupo<Grupo, Integer>(em).findById(grupo);
+				if (grupoOb == null) {
+					throw rechazar(IncidentError.NOT_EXIST_MUSIC_GROUP);
+				}
+				if (grupoOb.getActivo() == 0) {
+					throw rechazar(IncidentError.NOT_ACTIVE_MUSIC_GROUP);
+				}
+				List<Concierto> conciertos = new DAOConcierto<Concierto, Integer>(em).findByFechaAndGrupo(fecha, grupo);
+				if (conciertos.isEmpty()) {
+					throw rechazar(IncidentError.NOT_EXIST_CONCERT);
+				}
+				return conciertos.get(0).getIdconcierto();
+			});
+			// Primero se registra, para que el servicio deje de venderlo, y después se leen los tickets
+			// bloqueados: las compras del servicio que ya los han descontado terminan antes de la lectura
+			GESTIONADOS.put(idconcierto, grupo);
+			try {
+				int tickets = enTransaccion(em -> {
+					// Incluye los tickets repartidos en fracciones
+					Integer disponibles = new DAOConcierto<Concierto, Integer>(em)
+							.findTicketsForUpdate(Collections.singleton(idconcierto)).get(idconcierto);
+					if (disponibles == null) {
+						throw rechazar(IncidentError.NOT_EXIST_CONCERT);
+					}
+					return disponibles;
+				});
+				existencias = new Existencias(idconcierto, grupo, tickets);
+			} catch (PersistenceException | RuntimeException e) {
+				GESTIONADOS.remove(idconcierto);
+				throw e;
+			}
+			porId.put(existencias.idconcierto, existencias);
+			porClave.put(clave, existencias);
+			return existencias;
+		}
+	}
+
+	/**
+	 * Comprueba que existe un cliente, consultando la base de datos solo la primera vez.
+	 *
+	 * @param nif NIF del cliente
+	 * @throws PersistenceException si el cliente no existe
+	 */
+	private void comprobarCliente(String nif) throws PersistenceException {
+		if (clientes.contains(nif)) {
+			return;
+		}
+		Cliente cliente = enTransaccion(em -> new DAOCliente<Cliente, String>(em).findById(nif));
+		if (cliente == null) {
+			throw rechazar(IncidentError.NOT_EXIST_CLIENT);
+		}
+		clientes.add(nif);
+	}
+
+	/**
+	 * Siguiente PK de compra del bloque reservado, reservando otro si se ha agotado.
+	 *
+	 * @return PK de compra
+	 */
+	private int siguienteId() throws PersistenceException {
+		synchronized (bloque) {
+			if (siguienteId == finBloque) {
+				siguienteId = enTransaccion(em -> new DAOCompra<Compra, Integer>(em).nextIdBlock());
+				finBloque = siguienteId + DAOCompra.ID_BLOCK_SIZE;
+			}
+			return siguienteId++;
+		}
+	}
+
+	/**
+	 * Cuenta un rechazo en el registro de rechazos.
+	 *
+	 * @param error Causa del rechazo
+	 * @return Excepción a lanzar
+	 */
+	private static IncidentException rechazar(IncidentError error) {
+		rechazos.registrar("inventario.comprar", error);
+		return IncidentException.of(error);
+	}
+
+	/**
+	 * Trabajo en una transacción.
+	 *
+	 * @param <T> tipo del resultado
+	 */
+	@FunctionalInterface
+	private interface Trabajo<T> {
+		T ejecutar(EntityManager em) throws PersistenceException;
+	}
+
+	/**
+	 * Ejecuta un trabajo en una transacción nueva.
+	 *
+	 * @param trabajo Trabajo
+	 * @param <T> Tipo del resultado
+	 * @return Resultado del trabajo
+	 * @throws PersistenceException si el trabajo falla
+	 */
+	private <T> T enTransaccion(Trabajo<T> trabajo) throws PersistenceException {
+		EntityManager em = this.createSession();
+		try {
+			beginTransaction(em);
+			T resultado = trabajo.ejecutar(em);
+			commitTransaction(em);
+			return resultado;
+		} catch (PersistenceException | RuntimeException e) {
+			if (em.getTransaction().isActive()) {
+				rollbackTransaction(em);
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Tickets de un concierto en el inventario.
+	 */
+	private static final class Existencias {
+
+		private final int idconcierto;
+		private final int grupo;
+
+		/** Tickets que se pueden vender. */
+		private final AtomicInteger disponibles;
+
+		/** Tickets vendidos cuyas compras no se han escrito todavía. */
+		private final AtomicInteger pendientes = new AtomicInteger();
+
+		/** Grupo en desactivación: no se aceptan compras. Se modifica con el monitor del diario. */
+		private volatile boolean cerrado;
+
+		Existencias(int idconcierto, int grupo, int tickets) {
+			this.idconcierto = idconcierto;
+			this.grupo = grupo;
+			this.disponibles = new AtomicInteger(tickets);
+		}
+
+		/**
+		 * Descuenta los tickets si hay suficientes, sin bloqueos.
+		 */
+		boolean reservar(int tickets) {
+			if (cerrado) {
+				return false;
+			}
+			int actual;
+			do {
+				actual = disponibles.get();
+				if (actual < tickets) {
+					return false;
+				}
+			} while (!disponibles.compareAndSet(actual, actual - tickets));
+			pendientes.addAndGet(tickets);
+			return true;
+		}
+
+		/**
+		 * Devuelve los tickets de una compra que no se ha podido anotar.
+		 */
+		void devolver(int tickets) {
+			pendientes.addAndGet(-tickets);
+			disponibles.addAndGet(tickets);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.util.Date;
+
+/**
+ * Pedido de compra de tickets de un cliente para el concierto de un grupo en una fecha.
+ * Es el elemento de entrada de la compra por lotes. Inmutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class PedidoCompra {
+
+	private final Date fecha;
+	private final String nif;
+	private final int grupo;
+	private final int tickets;
+
+	/**
+	 * Constructor del pedido.
+	 * 
+	 * @param fecha Fecha del concierto
+	 * @param nif NIF del cliente
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param tickets Cantidad de tickets a comprar
+	 */
+	public PedidoCompra(Date fecha, String nif, int grupo, int tickets) {
+		this.fecha = new Date(fecha.getTime());
+		this.nif = nif;
+		this.grupo = grupo;
+		this.tickets = tickets;
+	}
+
+	// Métodos getter
+	public Date getFecha() {
+		return new Date(fecha.getTime());
+	}
+
+	public String getNif() {
+		return nif;
+	}
+
+	public int getGrupo() {
+		return grupo;
+	}
+
+	public int getTickets() {
+		return tickets;
+	}
+
+	@Override
+	public String toString() {
+		return "Pedido: Fecha: " + fecha + ". NIF: " + nif + ". Grupo: " + grupo + ". Tickets: " + tickets + ".";
+	}
+}
@@ -0,0 +1,90 @@
+package es.ubu.lsi.service.conciertos;
+
+/**
+ * Progreso de la purga en segundo plano de un grupo desactivado. Inmutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class ProgresoPurga {
+
+	private final int grupo;
+	private final long compras;
+	private final long conciertos;
+	private final boolean terminada;
+	private final String error;
+
+	private ProgresoPurga(int grupo, long compras, long conciertos, boolean terminada, String error) {
+		this.grupo = grupo;
+		this.compras = compras;
+		this.conciertos = conciertos;
+		this.terminada = terminada;
+		this.error = error;
+	}
+
+	/**
+	 * Progreso de una purga que todavía no ha empezado.
+	 * 
+	 * @param grupo PK del grupo
+	 * @return Progreso inicial
+	 */
+	static ProgresoPurga pendiente(int grupo) {
+		return new ProgresoPurga(grupo, 0, 0, false, null);
+	}
+
+	/**
+	 * Progreso tras eliminar un lote.
+	 * 
+	 * @param compras Compras eliminadas en el lote
+	 * @param conciertos Conciertos eliminados en el lote
+	 * @return Nuevo progreso
+	 */
+	ProgresoPurga mas(int compras, int conciertos) {
+		return new ProgresoPurga(grupo, this.compras + compras, this.conciertos + conciertos, false, null);
+	}
+
+	/**
+	 * Progreso de la purga completada.
+	 * 
+	 * @return Nuevo progreso
+	 */
+	ProgresoPurga terminada() {
+		return new ProgresoPurga(grupo, compras, conciertos, true, null);
+	}
+
+	/**
+	 * Progreso de la purga interrumpida por un error. Se puede reanudar con {@link PurgaGrupos#reanudar()}.
+	 * 
+	 * @param error Descripción del error
+	 * @return Nuevo progreso
+	 */
+	ProgresoPurga fallida(String error) {
+		return new ProgresoPurga(grupo, compras, conciertos, true, error);
+	}
+
+	// Métodos getter
+	public int getGrupo() {
+		return grupo;
+	}
+
+	public long getCompras() {
+		return compras;
+	}
+
+	public long getConciertos() {
+		return conciertos;
+	}
+
+	public boolean isTerminada() {
+		return terminada;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return "Purga: Grupo: " + grupo + ". Compras eliminadas: " + compras + ". Conciertos eliminados: " + conciertos
+				+ (terminada ? (error == null ? ". Terminada." : ". Fallida: " + error + ".") : ". En curso.");
+	}
+}
@@ -0,0 +1,231 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.ubu.lsi.dao.DAOCompra;
+import es.ubu.lsi.dao.DAOConcierto;
+import es.ubu.lsi.dao.DAOGrupo;
+import es.ubu.lsi.dao.IndiceConciertos;
+import es.ubu.lsi.dao.RegistroAgotados;
+import es.ubu.lsi.model.conciertos.Compra;
+import es.ubu.lsi.model.conciertos.Concierto;
+import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.service.PersistenceService;
+
+/**
+ * Purga en segundo plano de las compras y conciertos de los grupos desactivados.
+ * 
+ * Un único hilo elimina primero las compras y después los conciertos de cada grupo en lotes
+ * de tamaño acotado (propiedad <code>conciertos.purga.lote</code>, 1000 por defecto), cada uno
+ * en su propia transacción, de forma que nunca se mantienen bloqueos ni deshacer de todo el grupo.
+ * El estado de la purga está en la propia base de datos (un grupo inactivo con conciertos),
+ * así que tras una caída basta con llamar a {@link #reanudar()} al arrancar; lo hace el primer
+ * {@link ServiceImpl} que se crea (ver {@link #reanudarAlArrancar()}).
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class PurgaGrupos extends PersistenceService {
+
+	private static final Logger logger = LoggerFactory.getLogger(PurgaGrupos.class);
+
+	/** Propiedad de sistema con el número máximo de filas eliminadas por transacción. */
+	public static final String PROPIEDAD_LOTE = "conciertos.purga.lote";
+
+	/** Instancia única, compartida por todos los servicios. */
+	private static final PurgaGrupos INSTANCIA = new PurgaGrupos(Integer.getInteger(PROPIEDAD_LOTE, 1000));
+
+	/** Filas por transacción. */
+	private final int lote;
+
+	/** Hilo de la purga. */
+	private final ExecutorService ejecutor = Executors.newSingleThreadExecutor(tarea -> {
+		Thread hilo = new Thread(tarea, "purga-grupos");
+		hilo.setDaemon(true);
+		return hilo;
+	});
+
+	/** Último progreso de cada grupo programado. */
+	private final Map<Integer, ProgresoPurga> progresos = new ConcurrentHashMap<>();
+
+	/** Si ya se han reanudado las purgas interrumpidas. */
+	private final AtomicBoolean reanudadas = new AtomicBoolean();
+
+	/**
+	 * Constructor de la purga.
+	 * 
+	 * @param lote Número máximo de filas eliminadas por transacción
+	 */
+	private PurgaGrupos(int lote) {
+		if (lote < 1) {
+			throw new IllegalArgumentException("Tamaño de lote no válido: " + lote);
+		}
+		this.lote = lote;
+	}
+
+	/**
+	 * Devuelve la instancia única.
+	 * 
+	 * @return Purga de grupos
+	 */
+	public static PurgaGrupos getInstance() {
+		return INSTANCIA;
+	}
+
+	/**
+	 * Programa la purga de un grupo ya desactivado. No hace nada si ya hay una en curso para el grupo.
+	 * 
+	 * @param grupo PK del grupo
+	 * @return true si se ha programado
+	 */
+	public synchronized boolean programar(int grupo) {
+		ProgresoPurga actual = progresos.get(grupo);
+		if (actual != null && !actual.isTerminada()) {
+			return false;
+		}
+		progresos.put(grupo, ProgresoPurga.pendiente(grupo));
+		ejecutor.execute(() -> purgar(grupo));
+		return true;
+	}
+
+	/**
+	 * Programa la purga de todos los grupos desactivados que todavía tienen conciertos,
+	 * por ejemplo porque la aplicación se detuvo antes de terminarla.
+	 * 
+	 * @return Número de grupos programados
+	 */
+	public int reanudar() {
+		List<Integer> pendientes = enTransaccion(em -> new DAOGrupo<Grupo, Integer>(em).findIdsPendientesDePurga());
+		int programados = 0;
+		for (int grupo : pendientes) {
+			if (programar(grupo)) {
+				programados++;
+			}
+		}
+		if (programados > 0) {
+			logger.info("Reanudada la purga de {} grupos desactivados", programados);
+		}
+		return programados;
+	}
+
+	/**
+	 * Reanuda, en el hilo de la purga y solo la primera vez que se llama, las purgas que quedaron
+	 * sin terminar en una ejecución anterior.
+	 */
+	public void reanudarAlArrancar() {
+		if (reanudadas.compareAndSet(false, true)) {
+			ejecutor.execute(() -> {
+				try {
+					reanudar();
+				} catch (RuntimeException e) {
+					logger.error("No se ha podido reanudar la purga de los grupos desactivados", e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Devuelve el progreso de la purga de un grupo.
+	 * 
+	 * @param grupo PK del grupo
+	 * @return Progreso, o null si no se ha programado
+	 */
+	public ProgresoPurga getProgreso(int grupo) {
+		return progresos.get(grupo);
+	}
+
+	/**
+	 * Espera a que terminen las purgas programadas hasta ahora.
+	 * 
+	 * @param espera Tiempo máximo de espera
+	 * @param unidad Unidad del tiempo de espera
+	 * @return true si han terminado, false si se ha agotado la espera
+	 * @throws InterruptedException si se interrumpe la espera
+	 */
+	public boolean esperar(long espera, TimeUnit unidad) throws InterruptedException {
+		try {
+			ejecutor.submit(() -> { }).get(espera, unidad);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Purga un grupo por lotes: primero todas sus compras y después los conciertos sin compras.
+	 * Repite hasta que el grupo no tiene conciertos, ya que una compra que empezó antes de desactivar
+	 * el grupo puede insertarse después de haber purgado las compras de su concierto, y ese concierto
+	 * no se elimina mientras tenga compras.
+	 * 
+	 * @param grupo PK del grupo
+	 */
+	private void purgar(int grupo) {
+		try {
+			while (true) {
+				int compras = enTransaccion(em -> new DAOCompra<Compra, Integer>(em).removeByGrupo(grupo, lote));
+				int conciertos = compras > 0 ? 0
+						: enTransaccion(em -> new DAOConcierto<Concierto, Integer>(em).removeByGrupo(grupo, lote));
+				if (compras == 0 && conciertos == 0) {
+					if (!enTransaccion(em -> new DAOGrupo<Grupo, Integer>(em).findIdsPendientesDePurga()).contains(grupo)) {
+						break;
+					}
+					continue; // Quedan conciertos con compras cometidas después de la última pasada
+				}
+				ProgresoPurga progreso = progresos.merge(grupo, ProgresoPurga.pendiente(grupo),
+						(actual, nuevo) -> actual.mas(compras, conciertos));
+				logger.debug("{}", progreso);
+			}
+			IndiceConciertos.getInstance().invalidarGrupo(grupo);
+			RegistroAgotados.getInstance().invalidarGrupo(grupo);
+			logger.info("{}", progresos.merge(grupo, ProgresoPurga.pendiente(grupo),
+					(actual, nuevo) -> actual.terminada()));
+		} catch (RuntimeException e) {
+			logger.error("{}", progresos.merge(grupo, ProgresoPurga.pendiente(grupo),
+					(actual, nuevo) -> actual.fallida(e.getLocalizedMessage())));
+		}
+	}
+
+	/**
+	 * Ejecuta una operación en una transacción nueva y, al cometer, desaloja de la caché de segundo
+	 * nivel las compras y los conciertos, que las sentencias masivas no actualizan.
+	 * 
+	 * @param operacion Operación
+	 * @param <T> Tipo del resultado
+	 * @return Resultado de la operación
+	 */
+	private <T> T enTransaccion(Function<EntityManager, T> operacion) {
+		EntityManager em = this.createSession();
+		try {
+			beginTransaction(em);
+			T resultado = operacion.apply(em);
+			commitTransaction(em);
+			Cache cache = em.getEntityManagerFactory().getCache();
+			cache.evict(Compra.class);
+			cache.evict(Concierto.class);
+			return resultado;
+		} catch (RuntimeException e) {
+			if (em.getTransaction().isActive()) {
+				rollbackTransaction(em);
+			}
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package es.ubu.lsi.service.conciertos;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registro agregado de los rechazos de negocio (IncidentError) de las transacciones.
+ * 
+ * En lugar de escribir una traza por cada petición rechazada, que en un concierto agotado
+ * son casi todas, cuenta los rechazos por operación y error y escribe como mucho una línea
+ * por intervalo (propiedad <code>conciertos.rechazos.intervalo</code> en milisegundos,
+ * 10000 por defecto) con el formato <code>clave=valor</code>, por ejemplo
+ * <code>rechazos intervalo_ms=10000 comprar.NOT_AVAILABLE_TICKETS=5230</code>.
+ * Además de al registrar un rechazo, los acumulados se escriben en cada intervalo desde un hilo
+ * temporizador y al apagar la máquina virtual, para que la última ráfaga antes de un periodo sin
+ * rechazos no se quede sin escribir.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class RegistroRechazos {
+
+	private static final Logger logger = LoggerFactory.getLogger(RegistroRechazos.class);
+
+	/** Propiedad de sistema con el intervalo entre trazas en milisegundos. */
+	public static final String PROPIEDAD_INTERVALO = "conciertos.rechazos.intervalo";
+
+	/** Temporizador compartido por todos los registros. */
+	private static final ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor(tarea -> {
+		Thread hilo = new Thread(tarea, "rechazos-volcado");
+		hilo.setDaemon(true);
+		return hilo;
+	});
+
+	/** Intervalo entre trazas en nanosegundos. */
+	private final long intervalo;
+
+	/** Rechazos pendientes de escribir por operación y error. */
+	private final Map<String, LongAdder> pendientes = new ConcurrentHashMap<>();
+
+	/** Instante a partir del cual se puede escribir la siguiente traza. */
+	private final AtomicLong siguiente;
+
+	/** Instante de la última traza. */
+	private volatile long ultima;
+
+	/**
+	 * Constructor del registro.
+	 * 
+	 * @param intervaloMillis Intervalo mínimo entre trazas en milisegundos
+	 */
+	public RegistroRechazos(long intervaloMillis) {
+		this.intervalo = TimeUnit.MILLISECONDS.toNanos(intervaloMillis);
+		this.ultima = System.nanoTime();
+		this.siguiente = new AtomicLong(ultima + intervalo);
+		long periodo = Math.max(1L, intervaloMillis / 4); // Cada intervalo se escribe con un retraso de un cuarto como mucho
+		temporizador.scheduleAtFixedRate(this::volcarSiToca, periodo, periodo, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> volcar(System.nanoTime()), "rechazos-cierre"));
+	}
+
+	/**
+	 * Crea el registro a partir de las propiedades de sistema.
+	 * 
+	 * @return Registro configurado
+	 */
+	public static RegistroRechazos desdePropiedades() {
+		return new RegistroRechazos(Long.getLong(PROPIEDAD_INTERVALO, 10_000L));
+	}
+
+	/**
+	 * Cuenta un rechazo y, si ha pasado el intervalo, escribe los acumulados. Solo un hilo
+	 * escribe cada traza; el resto solo incrementa un contador.
+	 * 
+	 * @param operacion Nombre de la operación
+	 * @param error Causa del rechazo
+	 */
+	public void registrar(String operacion, IncidentError error) {
+		String clave = operacion + "." + error;
+		LongAdder contador = pendientes.get(clave);
+		if (contador == null) {
+			contador = pendientes.computeIfAbsent(clave, k -> new LongAdder());
+		}
+		contador.increment();
+		volcarSiToca();
+	}
+
+	/**
+	 * Escribe los acumulados si ha pasado el intervalo desde la última traza. Solo un hilo
+	 * escribe cada traza.
+	 */
+	private void volcarSiToca() {
+		long ahora = System.nanoTime();
+		long limite = siguiente.get();
+		if (ahora - limite >= 0 && siguiente.compareAndSet(limite, ahora + intervalo)) {
+			volcar(ahora);
+		}
+	}
+
+	/**
+	 * Escribe y pone a cero los rechazos acumulados, si hay alguno.
+	 * 
+	 * @param ahora Instante actual
+	 */
+	private void volcar(long ahora) {
+		Map<String, Long> recuento = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> pendiente : pendientes.entrySet()) {
+			long cuenta = pendiente.getValue().sumThenReset();
+			if (cuenta > 0) {
+				recuento.put(pendiente.getKey(), cuenta);
+			}
+		}
+		if (recuento.isEmpty()) {
+			return; // La siguiente traza cubre también este intervalo sin rechazos
+		}
+		StringBuilder linea = new StringBuilder("rechazos intervalo_ms=")
+				.append(TimeUnit.NANOSECONDS.toMillis(ahora - ultima));
+		for (Map.Entry<String, Long> cuenta : recuento.entrySet()) {
+			linea.append(' ').append(cuenta.getKey()).append('=').append(cuenta.getValue());
+		}
+		ultima = ahora;
+		logger.info(linea.toString());
+	}
+}
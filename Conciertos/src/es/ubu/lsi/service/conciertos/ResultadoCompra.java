@@ -0,0 +1,77 @@
+package es.ubu.lsi.service.conciertos;
+
+/**
+ * Resultado de un pedido de la compra por lotes: la compra realizada o el error por el que se rechazó.
+ * Inmutable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public final class ResultadoCompra {
+
+	private final PedidoCompra pedido;
+	private final int idCompra;
+	private final IncidentError error;
+
+	/**
+	 * Constructor del resultado.
+	 * 
+	 * @param pedido Pedido al que corresponde
+	 * @param idCompra PK de la compra realizada, 0 si se rechazó
+	 * @param error Error por el que se rechazó, null si se realizó la compra
+	 */
+	private ResultadoCompra(PedidoCompra pedido, int idCompra, IncidentError error) {
+		this.pedido = pedido;
+		this.idCompra = idCompra;
+		this.error = error;
+	}
+
+	/**
+	 * Crea el resultado de un pedido realizado.
+	 * 
+	 * @param pedido Pedido
+	 * @param idCompra PK de la compra insertada
+	 * @return Resultado
+	 */
+	public static ResultadoCompra realizada(PedidoCompra pedido, int idCompra) {
+		return new ResultadoCompra(pedido, idCompra, null);
+	}
+
+	/**
+	 * Crea el resultado de un pedido rechazado.
+	 * 
+	 * @param pedido Pedido
+	 * @param error Motivo del rechazo
+	 * @return Resultado
+	 */
+	public static ResultadoCompra rechazada(PedidoCompra pedido, IncidentError error) {
+		return new ResultadoCompra(pedido, 0, error);
+	}
+
+	/**
+	 * Indica si el pedido se realizó.
+	 * 
+	 * @return true si se insertó la compra
+	 */
+	public boolean isRealizada() {
+		return error == null;
+	}
+
+	// Métodos getter
+	public PedidoCompra getPedido() {
+		return pedido;
+	}
+
+	public int getIdCompra() {
+		return idCompra;
+	}
+
+	public IncidentError getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return isRealizada() ? "Compra realizada: Id: " + idCompra + ". " + pedido
+				: "Compra rechazada: " + error.getText() + ". " + pedido;
+	}
+}
@@ -2,8 +2,10 @@ package es.ubu.lsi.service.conciertos;
 
 import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
 
 import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.model.conciertos.ResumenGrupo;
 import es.ubu.lsi.service.PersistenceException;
 
 /**
@@ -29,6 +31,28 @@ public interface Service {
 	 */
 	public void comprar(Date fecha, String nif, int grupo, int tickets) throws PersistenceException;
 
+	/**
+	 * Alta de varias compras en una única transacción. Cada pedido se valida como en
+	 * {@link #comprar(Date, String, int, int)} y se atiende en el orden de la lista;
+	 * los pedidos rechazados no impiden realizar el resto.
+	 * 
+	 * @param pedidos pedidos de compra
+	 * @return resultado de cada pedido, en el mismo orden
+	 * @throws PersistenceException si se produce un error que anula todo el lote
+	 */
+	public List<ResultadoCompra> comprarLote(List<PedidoCompra> pedidos) throws PersistenceException;
+
+	/**
+	 * Reparte los tickets de un concierto muy demandado en varias filas, para que las compras
+	 * concurrentes no esperen todas por la misma fila. Con 0 fracciones deshace el reparto.
+	 * 
+	 * @param fecha fecha del concierto
+	 * @param grupo identificador del grupo
+	 * @param fracciones número de fracciones
+	 * @throws PersistenceException si se produce un error
+	 */
+	public void repartirTickets(Date fecha, int grupo, int fracciones) throws PersistenceException;
+
 	/**
 	 * Desactiva un grupo y elimina todos los registros asociados.
 	 * 
@@ -36,6 +60,16 @@ public interface Service {
 	 * @throws PersistenceException si se produce un error
 	 */
 	public void desactivar(int grupo) throws PersistenceException;
+
+	/**
+	 * Desactivación de un grupo en dos fases. Marca el grupo como inactivo inmediatamente,
+	 * con lo que se rechazan sus compras, y elimina sus conciertos y compras en segundo plano
+	 * por lotes (ver {@link PurgaGrupos}).
+	 * 
+	 * @param grupo identificador del grupo
+	 * @throws PersistenceException si se produce un error
+	 */
+	public void desactivarAsincrono(int grupo) throws PersistenceException;
 	
 	/**
 	 * Consulta gupos. En este caso en particular es importante recuperar 
@@ -46,4 +80,37 @@ public interface Service {
 	 */
 	public List<Grupo> consultarGrupos() throws PersistenceException;
 
+	/**
+	 * Consulta una página de grupos con la misma información que {@link #consultarGrupos()}.
+	 * La paginación es por clave: para la página siguiente se pasa el idgrupo del último grupo devuelto.
+	 * 
+	 * @param desdeIdGrupo idgrupo del último grupo de la página anterior, 0 para la primera página
+	 * @param tamPagina número máximo de grupos de la página
+	 * @return grupos ordenados por idgrupo, lista vacía al terminar
+	 * @throws PersistenceException si se produce un error
+	 */
+	public List<Grupo> consultarGrupos(int desdeIdGrupo, int tamPagina) throws PersistenceException;
+
+	/**
+	 * Recorre todos los grupos con la misma información que {@link #consultarGrupos()},
+	 * entregándolos de uno en uno y leyéndolos por páginas, de forma que la memoria usada
+	 * no depende del número de grupos. Los grupos dejan de estar gestionados al pasar a la página
+	 * siguiente, por lo que el consumidor no debe guardarlos esperando que sigan cargándose.
+	 * 
+	 * @param consumidor receptor de cada grupo, en orden de idgrupo
+	 * @param tamPagina número de grupos leídos en cada consulta
+	 * @throws PersistenceException si se produce un error
+	 */
+	public void consultarGrupos(Consumer<Grupo> consumidor, int tamPagina) throws PersistenceException;
+
+	/**
+	 * Consulta de solo lectura de los grupos con sus conciertos, el número de compras y tickets
+	 * vendidos de cada concierto y sus compradores. Devuelve proyecciones inmutables en lugar de
+	 * entidades, por lo que es más barata que {@link #consultarGrupos()} cuando no se van a modificar.
+	 * 
+	 * @return resumen de los grupos ordenado por idgrupo
+	 * @throws PersistenceException si se produce un error
+	 */
+	public List<ResumenGrupo> consultarResumenGrupos() throws PersistenceException;
+
 }
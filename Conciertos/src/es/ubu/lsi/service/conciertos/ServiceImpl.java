@@ -1,12 +1,22 @@
 package es.ubu.lsi.service.conciertos;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
 
 
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,16 +24,24 @@ import es.ubu.lsi.dao.DAOCliente;
 import es.ubu.lsi.dao.DAOCompra;
 import es.ubu.lsi.dao.DAOConcierto;
 import es.ubu.lsi.dao.DAOGrupo;
+import es.ubu.lsi.dao.EstrategiaCarga;
+import es.ubu.lsi.dao.IndiceConciertos;
+import es.ubu.lsi.dao.RegistroAgotados;
 import es.ubu.lsi.model.conciertos.Cliente;
 import es.ubu.lsi.model.conciertos.Compra;
 import es.ubu.lsi.model.conciertos.Concierto;
 import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.model.conciertos.ResumenGrupo;
 import es.ubu.lsi.service.PersistenceException;
 import es.ubu.lsi.service.PersistenceService;
+import es.ubu.lsi.service.metrics.MetricRegistry;
+import es.ubu.lsi.service.metrics.StatementProfiler;
+import es.ubu.lsi.service.metrics.Timer;
 
 /**
  * Clase ServiceImpl que implementa la logica de negocio. 
  * Hereda de PersistenceService e implementa la interfaz Service.
+ * Es segura para hilos: cada llamada usa su propio gestor de entidades.
  * 
  * @author Eduardo Manuel Cabeza Lopez
  */
@@ -31,17 +49,96 @@ public class ServiceImpl extends PersistenceService implements Service {
 
 	private static final Logger logger = LoggerFactory.getLogger(ServiceImpl.class);
 
-	private EntityManager em;
-	private DAOGrupo<Grupo, Integer> grupoDAO;
-	private DAOConcierto<Concierto, Integer> conciertoDAO;
-	private DAOCliente<Cliente, String> clienteDAO;
-	private DAOCompra<Compra, Integer> compraDAO;
+	// Sin estado por transacción: el gestor de entidades y los DAO se crean en cada llamada,
+	// por lo que una misma instancia se puede compartir entre hilos
+
+	/** Métricas de las transacciones: tiempos y rollbacks por causa. */
+	private static final MetricRegistry metricas = MetricRegistry.getInstance();
+
+	/** Registro agregado de los rechazos de negocio. */
+	private static final RegistroRechazos rechazos = RegistroRechazos.desdePropiedades();
+
+	/** Cotas de tickets de los conciertos, para rechazar sin abrir sesión las compras de agotados. */
+	private static final RegistroAgotados agotados = RegistroAgotados.getInstance();
+
+	/** Serialización de las compras de cada concierto, compartida por todas las instancias. */
+	private static final AdmisionCompras admision = AdmisionCompras.getInstance();
+
+	/** Grafo de entidades con conciertos, compras y clientes de cada grupo. */
+	private static final String GRAFO_GRUPOS = "gruposConConciertosComprasyClientes";
+
+	/** Pista con la que se aplica el grafo. */
+	private static final String PISTA_GRAFO = "javax.persistence.fetchgraph";
+
+	/** Estrategia de carga de consultarGrupos. */
+	private final EstrategiaCarga estrategia;
 
 	/**
-	 * Constructor de la clase ServiceImpl.
+	 * Constructor de la clase ServiceImpl. La estrategia de carga se configura con las propiedades de sistema.
 	 */
 	public ServiceImpl() {
+		this(EstrategiaCarga.configurada());
+	}
+
+	/**
+	 * Constructor de la clase ServiceImpl con una estrategia de carga concreta.
+	 * 
+	 * @param estrategia Estrategia de carga de los grupos en consultarGrupos
+	 */
+	public ServiceImpl(EstrategiaCarga estrategia) {
 		super();
+		this.estrategia = estrategia;
+		PurgaGrupos.getInstance().reanudarAlArrancar(); // Purgas que una caída dejó a medias
+	}
+
+	/**
+	 * Ejecuta una transacción registrando su duración en el temporizador
+	 * <code>service.&lt;operación&gt;</code> y, si falla, contando el rollback por su IncidentError
+	 * o por la clase de la excepción en <code>service.&lt;operación&gt;.rollback.&lt;causa&gt;</code>.
+	 * Con el modo de diagnóstico activo cuenta también sus sentencias SQL (ver {@link StatementProfiler}).
+	 * 
+	 * @param operacion Nombre de la operación
+	 * @param transaccion Transacción
+	 * @param <T> Tipo del resultado
+	 * @return Resultado de la transacción
+	 * @throws PersistenceException si la transacción falla
+	 */
+	private <T> T medir(String operacion, Transaccion<T> transaccion) throws PersistenceException {
+		Timer timer = metricas.timer("service." + operacion);
+		StatementProfiler.begin(operacion);
+		long inicio = timer.start();
+		try {
+			return transaccion.ejecutar();
+		} catch (IncidentException e) {
+			metricas.counter("service." + operacion + ".rollback." + e.getError()).increment();
+			throw e;
+		} catch (PersistenceException | RuntimeException e) {
+			metricas.counter("service." + operacion + ".rollback." + e.getClass().getSimpleName()).increment();
+			throw e;
+		} finally {
+			timer.stop(inicio);
+			StatementProfiler.end();
+		}
+	}
+
+	/**
+	 * Deshace la transacción activa tras un error y lo registra. Los rechazos de negocio
+	 * (IncidentException) se cuentan en el registro de rechazos, que los escribe agregados, y el resto
+	 * de errores se registra con su traza.
+	 * 
+	 * @param em Gestor de entidades
+	 * @param operacion Nombre de la operación
+	 * @param e Error
+	 */
+	private void deshacer(EntityManager em, String operacion, Exception e) {
+		if (em.getTransaction().isActive()) {
+			rollbackTransaction(em);
+		}
+		if (e instanceof IncidentException) {
+			rechazos.registrar(operacion, ((IncidentException) e).getError());
+		} else {
+			logger.error("Rollback de {}", operacion, e);
+		}
 	}
 
 	/**
@@ -56,63 +153,306 @@ public class ServiceImpl extends PersistenceService implements Service {
 	 */
 	@Override
 	public void comprar(Date fecha, String nif, int grupo, int tickets) throws PersistenceException {
-		try {
+		medir("comprar", () -> {
+			// Concierto agotado o con menos tickets de los pedidos: se rechaza sin ir a la base de datos
+			rechazarSiAgotado(fecha, grupo, tickets);
+			// Una transacción por concierto, salvo si está repartido: el resto de compras esperan en memoria
+			return admision.ejecutar(grupo, fecha, () -> {
+				rechazarSiAgotado(fecha, grupo, tickets); // Las compras anteriores de la cola pueden haberlo agotado
+				comprarEnTransaccion(fecha, nif, grupo, tickets);
+				return null;
+			});
+		});
+	}
+
+	/**
+	 * Rechaza la compra si el registro de agotados sabe que el concierto no tiene los tickets pedidos.
+	 * 
+	 * @param fecha Fecha del concierto
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param tickets Cantidad de tickets a comprar
+	 * @throws IncidentException si no hay tickets suficientes
+	 */
+	private static void rechazarSiAgotado(Date fecha, int grupo, int tickets) throws IncidentException {
+		Integer idConcierto = IndiceConciertos.getInstance().buscar(grupo, fecha);
+		if (idConcierto != null && agotados.sinTickets(idConcierto, tickets)) {
+			rechazos.registrar("comprar", IncidentError.NOT_AVAILABLE_TICKETS);
+			throw IncidentException.of(IncidentError.NOT_AVAILABLE_TICKETS);
+		}
+	}
 
-			em = this.createSession();
-			grupoDAO = new DAOGrupo<Grupo, Integer>(em);
-			conciertoDAO = new DAOConcierto<Concierto, Integer>(em);
-			clienteDAO = new DAOCliente<Cliente, String>(em);
-			compraDAO = new DAOCompra<Compra, Integer>(em);
+	/**
+	 * Realiza la transacción comprar.
+	 * 
+	 * @param fecha Fecha del concierto
+	 * @param nif NIF del cliente
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param tickets Cantidad de tickets a comprar
+	 * @throws PersistenceException si se produce un error
+	 */
+	private void comprarEnTransaccion(Date fecha, String nif, int grupo, int tickets) throws PersistenceException {
+		EntityManager em = this.createSession();
+		try {
+			DAOGrupo<Grupo, Integer> grupoDAO = new DAOGrupo<Grupo, Integer>(em);
+			DAOConcierto<Concierto, Integer> conciertoDAO = new DAOConcierto<Concierto, Integer>(em);
+			DAOCliente<Cliente, String> clienteDAO = new DAOCliente<Cliente, String>(em);
+			DAOCompra<Compra, Integer> compraDAO = new DAOCompra<Compra, Integer>(em);
 			beginTransaction(em); // Inicia transacción		
 
 			Cliente cliente = clienteDAO.findById(nif); // Busca al cliente
 			if (cliente == null) { // Comprueba que el cliente existe
 
-				throw new IncidentException(IncidentError.NOT_EXIST_CLIENT);
+				throw IncidentException.of(IncidentError.NOT_EXIST_CLIENT);
 			}
 			Grupo grupoOb = grupoDAO.findById(grupo);
 
 			if (grupoOb == null) { // Comprueba que el grupo existe
-				throw new IncidentException(IncidentError.NOT_EXIST_MUSIC_GROUP);
+				throw IncidentException.of(IncidentError.NOT_EXIST_MUSIC_GROUP);
+			}
+			if (grupoOb.getActivo() == 0) { // Un grupo desactivado puede tener conciertos pendientes de purgar
+				throw IncidentException.of(IncidentError.NOT_ACTIVE_MUSIC_GROUP);
 			}
 
 			List<Concierto> concierto = conciertoDAO.findByFechaAndGrupo(fecha, grupo); // Busca el concierto
 			if (concierto.size() == 0) { // Comprueba que el concierto existe por grupo y fecha.
-				throw new IncidentException(IncidentError.NOT_EXIST_CONCERT);
+				throw IncidentException.of(IncidentError.NOT_EXIST_CONCERT);
 			}
 
-			int ticketsDisponibles = concierto.get(0).getTickets();
-			if (tickets > ticketsDisponibles) { // Comprobar que hay suficientes tickets disponibles
-				throw new IncidentException(IncidentError.NOT_AVAILABLE_TICKETS);
+			Concierto conciertoOb = concierto.get(0);
+			if (InventarioTickets.gestionaConcierto(conciertoOb.getIdconcierto())) { // Solo lo vende el inventario
+				throw IncidentException.of(IncidentError.CONCERT_IN_INVENTORY);
 			}
 
-			conciertoDAO.updateTickets(ticketsDisponibles - tickets, concierto.get(0)); // Actualiza tickets
-
-			int idCompra = compraDAO.findNextId(); // Obtiene siguiente PK para compra
+			// Descuenta los tickets solo si hay suficientes disponibles, en una única sentencia
+			int descontados = conciertoDAO.decrementTickets(conciertoOb.getIdconcierto(), tickets);
+			// Las fracciones leídas en esta transacción dicen si la columna da los tickets disponibles
+			boolean repartido = conciertoDAO.isRepartido();
+			admision.marcarRepartido(grupo, fecha, repartido);
+			if (descontados == 0) {
+				// Quedan menos de los pedidos y, si no está repartido, como mucho los leídos de la columna
+				agotados.acotar(conciertoOb.getIdconcierto(), grupo,
+						repartido ? tickets - 1 : Math.min(conciertoOb.getTickets(), tickets - 1));
+				throw IncidentException.of(IncidentError.NOT_AVAILABLE_TICKETS);
+			}
+			if (InventarioTickets.gestionaConcierto(conciertoOb.getIdconcierto())) {
+				// El inventario lo ha cargado mientras tanto: espera a este bloqueo para leer los tickets
+				throw IncidentException.of(IncidentError.CONCERT_IN_INVENTORY);
+			}
 
-			Compra compra = new Compra(); // Crea nueva compra
-			compraDAO.insertCompra(idCompra, cliente, concierto.get(0), tickets, compra); // Inseta la compra
+			Compra compra = new Compra(); // Crea nueva compra, la PK la asigna la secuencia SEQ_COMPRA
+			compraDAO.insertCompra(cliente, concierto.get(0), tickets, compra); // Inseta la compra
 			em.persist(compra); // Hace a la entidad persistente
 
 			commitTransaction(em); //Cometer transacción
 
+			// Solo tras cometer: los tickets leídos menos los comprados son una cota de los que quedan,
+			// salvo en un concierto repartido, cuya columna no incluye los de las fracciones
+			if (!repartido) {
+				agotados.acotar(conciertoOb.getIdconcierto(), grupo, conciertoOb.getTickets() - tickets);
+			}
 		} catch (Exception e) {
-			logger.error("Exception");
-			if (em.getTransaction().isActive()) {
-				System.out.println("Comit rollback");
-				rollbackTransaction(em);
+			deshacer(em, "comprar", e);
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Implementación de la transacción comprar por lotes.
+	 * Resuelve todos los clientes, grupos y conciertos del lote con consultas IN, reparte los
+	 * tickets disponibles entre los pedidos en el orden recibido, descuenta una sola vez los
+	 * tickets de cada concierto e inserta todas las compras en la misma transacción.
+	 * 
+	 * @param pedidos Pedidos de compra
+	 * @return Resultado de cada pedido, en el mismo orden
+	 */
+	@Override
+	public List<ResultadoCompra> comprarLote(List<PedidoCompra> pedidos) throws PersistenceException {
+		if (pedidos.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return medir("comprarLote", () -> comprarLoteEnTransaccion(pedidos));
+	}
+
+	/**
+	 * Realiza la transacción comprar por lotes.
+	 * 
+	 * @param pedidos Pedidos de compra
+	 * @return Resultado de cada pedido, en el mismo orden
+	 * @throws PersistenceException si se produce un error
+	 */
+	private List<ResultadoCompra> comprarLoteEnTransaccion(List<PedidoCompra> pedidos) throws PersistenceException {
+		EntityManager em = this.createSession();
+		try {
+			DAOGrupo<Grupo, Integer> grupoDAO = new DAOGrupo<Grupo, Integer>(em);
+			DAOConcierto<Concierto, Integer> conciertoDAO = new DAOConcierto<Concierto, Integer>(em);
+			DAOCliente<Cliente, String> clienteDAO = new DAOCliente<Cliente, String>(em);
+			DAOCompra<Compra, Integer> compraDAO = new DAOCompra<Compra, Integer>(em);
+			beginTransaction(em); // Inicia transacción
+
+			Set<String> nifs = new HashSet<>();
+			Set<Integer> idGrupos = new HashSet<>();
+			Set<Date> fechas = new HashSet<>();
+			for (PedidoCompra pedido : pedidos) {
+				nifs.add(pedido.getNif());
+				idGrupos.add(pedido.getGrupo());
+				fechas.add(pedido.getFecha());
+			}
+
+			Map<String, Cliente> clientes = new HashMap<>();
+			for (Cliente cliente : clienteDAO.findByNifs(nifs)) {
+				clientes.put(cliente.getNif(), cliente);
+			}
+			Map<Integer, Grupo> grupos = new HashMap<>();
+			for (Grupo grupo : grupoDAO.findByIds(idGrupos)) {
+				grupos.put(grupo.getIdgrupo(), grupo);
+			}
+			// Conciertos por grupo y fecha, bloqueados hasta cometer para que el reparto sea válido
+			Map<String, Concierto> conciertos = new HashMap<>();
+			for (Concierto concierto : conciertoDAO.findByGruposAndFechasForUpdate(idGrupos, fechas)) {
+				conciertos.put(claveConcierto(concierto.getGrupo().getIdgrupo(), concierto.getFecha()), concierto);
+			}
+			// Las fracciones de tickets no dependen de la fila del concierto: se bloquean y se vuelven a leer
+			Map<Integer, Concierto> porId = new HashMap<>();
+			for (Concierto concierto : conciertos.values()) {
+				porId.put(concierto.getIdconcierto(), concierto);
+			}
+			Map<Integer, Integer> fracciones = conciertoDAO.lockFracciones(porId.keySet());
+			Map<Concierto, Integer> disponibles = new HashMap<>();
+			for (Concierto concierto : conciertos.values()) {
+				disponibles.put(concierto, concierto.getTickets() + fracciones.getOrDefault(concierto.getIdconcierto(), 0));
+			}
+
+			// Reparto de tickets en el orden de los pedidos
+			Map<Concierto, Integer> vendidos = new LinkedHashMap<>();
+			List<ResultadoCompra> resultados = new ArrayList<>();
+			List<Compra> compras = new ArrayList<>();
+			for (PedidoCompra pedido : pedidos) {
+				Concierto concierto = conciertos.get(claveConcierto(pedido.getGrupo(), pedido.getFecha()));
+				IncidentError error = null;
+				if (!clientes.containsKey(pedido.getNif())) {
+					error = IncidentError.NOT_EXIST_CLIENT;
+				} else if (!grupos.containsKey(pedido.getGrupo())) {
+					error = IncidentError.NOT_EXIST_MUSIC_GROUP;
+				} else if (grupos.get(pedido.getGrupo()).getActivo() == 0) {
+					error = IncidentError.NOT_ACTIVE_MUSIC_GROUP;
+				} else if (concierto == null) {
+					error = IncidentError.NOT_EXIST_CONCERT;
+				} else if (InventarioTickets.gestionaConcierto(concierto.getIdconcierto())) {
+					error = IncidentError.CONCERT_IN_INVENTORY;
+				} else if (pedido.getTickets() > disponibles.get(concierto)) {
+					error = IncidentError.NOT_AVAILABLE_TICKETS;
+				}
+				if (error != null) {
+					resultados.add(ResultadoCompra.rechazada(pedido, error));
+					compras.add(null);
+					continue;
+				}
+				disponibles.put(concierto, disponibles.get(concierto) - pedido.getTickets());
+				vendidos.merge(concierto, pedido.getTickets(), Integer::sum);
+				Compra compra = new Compra();
+				compraDAO.insertCompra(clientes.get(pedido.getNif()), concierto, pedido.getTickets(), compra);
+				resultados.add(null);
+				compras.add(compra);
 			}
-			logger.error(e.getLocalizedMessage());
-			if (e instanceof IncidentException) {
-				throw (IncidentException) e;
-			} else {
-				throw e;
+
+			// Un único descuento por concierto, las filas están bloqueadas
+			for (Map.Entry<Concierto, Integer> venta : vendidos.entrySet()) {
+				if (conciertoDAO.decrementTickets(venta.getKey().getIdconcierto(), venta.getValue()) == 0) {
+					throw IncidentException.of(IncidentError.NOT_AVAILABLE_TICKETS);
+				}
 			}
+			List<Compra> nuevas = new ArrayList<>();
+			for (Compra compra : compras) {
+				if (compra != null) {
+					nuevas.add(compra);
+				}
+			}
+			compraDAO.persistAll(nuevas); // Inserciones en lotes JDBC, la PK la asigna la secuencia SEQ_COMPRA
+
+			commitTransaction(em); // Cometer transacción
+
+			// Los conciertos estaban bloqueados, así que los tickets que les quedan son exactos
+			for (Concierto concierto : conciertos.values()) {
+				agotados.acotar(concierto.getIdconcierto(), concierto.getGrupo().getIdgrupo(), disponibles.get(concierto));
+			}
+
+			for (int i = 0; i < resultados.size(); i++) {
+				if (compras.get(i) != null) {
+					resultados.set(i, ResultadoCompra.realizada(pedidos.get(i), compras.get(i).getIdcompra()));
+				}
+			}
+			return resultados;
+		} catch (Exception e) {
+			deshacer(em, "comprarLote", e);
+			throw e;
 		} finally {
 			em.close();
 		}
 	}
 
+	/**
+	 * Implementación de la transacción repartirTickets. Reparte el total de tickets del concierto
+	 * en fracciones (ver {@link DAOConcierto#splitTickets(int, int)}); el total no cambia, así que
+	 * el registro de agotados sigue siendo válido.
+	 * 
+	 * @param fecha Fecha del concierto
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param fracciones Número de fracciones, 0 para deshacer el reparto
+	 */
+	@Override
+	public void repartirTickets(Date fecha, int grupo, int fracciones) throws PersistenceException {
+		if (fracciones < 0) {
+			throw new IllegalArgumentException("Número de fracciones no válido: " + fracciones);
+		}
+		medir("repartirTickets", () -> {
+			repartirTicketsEnTransaccion(fecha, grupo, fracciones);
+			return null;
+		});
+	}
+
+	/**
+	 * Realiza la transacción repartirTickets.
+	 * 
+	 * @param fecha Fecha del concierto
+	 * @param grupo PK del grupo que toca en el concierto
+	 * @param fracciones Número de fracciones
+	 * @throws PersistenceException si se produce un error
+	 */
+	private void repartirTicketsEnTransaccion(Date fecha, int grupo, int fracciones) throws PersistenceException {
+		EntityManager em = this.createSession();
+		try {
+			DAOConcierto<Concierto, Integer> conciertoDAO = new DAOConcierto<Concierto, Integer>(em);
+			beginTransaction(em);
+			List<Concierto> concierto = conciertoDAO.findByFechaAndGrupo(fecha, grupo);
+			if (concierto.isEmpty()) {
+				throw IncidentException.of(IncidentError.NOT_EXIST_CONCERT);
+			}
+			int tickets = conciertoDAO.splitTickets(concierto.get(0).getIdconcierto(), fracciones);
+			commitTransaction(em);
+			admision.marcarRepartido(grupo, fecha, fracciones > 0);
+			logger.debug("Concierto {}: {} tickets repartidos en {} fracciones", concierto.get(0).getIdconcierto(),
+					tickets, fracciones);
+		} catch (Exception e) {
+			deshacer(em, "repartirTickets", e);
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Clave para emparejar un concierto con los pedidos del mismo grupo y fecha.
+	 * 
+	 * @param grupo PK del grupo
+	 * @param fecha Fecha del concierto
+	 * @return Clave
+	 */
+	private static String claveConcierto(int grupo, Date fecha) {
+		return grupo + "@" + fecha.getTime();
+	}
+
 	/**
 	 * Implementación de la transacción desactivar. 
 	 * Desactiva a un grupo y elimina toda la información asociada que se tenga en la base de datos.
@@ -121,95 +461,304 @@ public class ServiceImpl extends PersistenceService implements Service {
 	 */
 	@Override
 	public void desactivar(int grupo) throws PersistenceException {
+		medir("desactivar", () -> {
+			desactivarEnTransaccion(grupo);
+			return null;
+		});
+	}
+
+	/**
+	 * Realiza la transacción desactivar con sentencias masivas, en un número fijo
+	 * de viajes a la base de datos sea cual sea el número de conciertos y compras del grupo.
+	 * Primero bloquea los conciertos del grupo (incrementando su versión) para que una compra
+	 * concurrente no pueda insertar una compra entre el borrado de las compras y el de los conciertos.
+	 * 
+	 * @param grupo Grupo a desactivar
+	 * @throws PersistenceException si se produce un error
+	 */
+	private void desactivarEnTransaccion(int grupo) throws PersistenceException {
 
-		em = this.createSession();
-		grupoDAO = new DAOGrupo<Grupo, Integer>(em);
-		conciertoDAO = new DAOConcierto<Concierto, Integer>(em);
-		clienteDAO = new DAOCliente<Cliente, String>(em);
-		compraDAO = new DAOCompra<Compra, Integer>(em);
+		EntityManager em = this.createSession();
+		DAOGrupo<Grupo, Integer> grupoDAO = new DAOGrupo<Grupo, Integer>(em);
+		DAOConcierto<Concierto, Integer> conciertoDAO = new DAOConcierto<Concierto, Integer>(em);
+		DAOCompra<Compra, Integer> compraDAO = new DAOCompra<Compra, Integer>(em);
 
 		try {
+			if (InventarioTickets.gestionaGrupo(grupo)) { // Se desactiva con el inventario, que antes escribe sus compras
+				throw IncidentException.of(IncidentError.CONCERT_IN_INVENTORY);
+			}
 			beginTransaction(em); // Inicia transacción
 
-			Grupo grupoOb = grupoDAO.findById(grupo); // Busca el grupo
-
-			if (grupoOb == null) { // Comprueba que el grupo existe
-				throw new IncidentException(IncidentError.NOT_EXIST_MUSIC_GROUP);
+			if (grupoDAO.desactivarGrupo(grupo) == 0) { // Desactiva el grupo, comprobando que existe
+				throw IncidentException.of(IncidentError.NOT_EXIST_MUSIC_GROUP);
 			}
 
-			grupoDAO.desactivarGrupo(grupoOb); // Desactiva al grupo
+			conciertoDAO.lockByGrupo(grupo); // Bloquea los conciertos del grupo frente a compras concurrentes
+			int compras = compraDAO.removeByGrupo(grupo); // Elimina las compras de los conciertos del grupo
+			int conciertos = conciertoDAO.removeByGrupo(grupo); // Elimina los conciertos del grupo
 
-			/*List<Compra> compras = compraDAO.findAllByGroup(grupo); // Busca todas las compras asociadas al grupo
+			commitTransaction(em); // Cometer transacción
 
-			if (compras.size() != 0) { // Si existen compras asociadas al grupo las elimina
-				for (Compra compra : compras) {
-					compraDAO.remove(compra);
-				}
-			}*/
+			desalojarCache(em, grupo); // El grupo, sus conciertos y sus compras ya no son válidos en las cachés
+			logger.debug("Grupo {} desactivado: {} conciertos y {} compras eliminados", grupo, conciertos, compras);
+		} catch (Exception e) {
+			deshacer(em, "desactivar", e);
+			throw e;
+		} finally {
+			em.close();
+		}
 
-			List<Concierto> conciertos = conciertoDAO.findByGrupo(grupo); // Busca todos los conciertos del grupo
+	}
 
-			if (conciertos.size() != 0) { // Si existen conciertos asociados al grupo los elimina
-				for (Concierto concierto : conciertos) {
-					compraDAO.removeByConcierto(concierto);
-					conciertoDAO.remove(concierto);
-					
-				}
+	/**
+	 * Implementación de la transacción desactivar en dos fases. Solo pone a 0 el estado activo
+	 * del grupo; la purga de sus conciertos y compras la hace {@link PurgaGrupos} en segundo plano.
+	 * 
+	 * @param grupo Grupo a desactivar
+	 */
+	@Override
+	public void desactivarAsincrono(int grupo) throws PersistenceException {
+		medir("desactivarAsincrono", () -> {
+			desactivarAsincronoEnTransaccion(grupo);
+			return null;
+		});
+	}
+
+	/**
+	 * Realiza la transacción desactivar en dos fases.
+	 * 
+	 * @param grupo Grupo a desactivar
+	 * @throws PersistenceException si se produce un error
+	 */
+	private void desactivarAsincronoEnTransaccion(int grupo) throws PersistenceException {
+		EntityManager em = this.createSession();
+		try {
+			if (InventarioTickets.gestionaGrupo(grupo)) { // Se desactiva con el inventario, que antes escribe sus compras
+				throw IncidentException.of(IncidentError.CONCERT_IN_INVENTORY);
 			}
+			beginTransaction(em);
+			DAOGrupo<Grupo, Integer> grupoDAO = new DAOGrupo<Grupo, Integer>(em);
+			if (grupoDAO.desactivarGrupo(grupo) == 0) { // Desactiva el grupo, comprobando que existe
+				throw IncidentException.of(IncidentError.NOT_EXIST_MUSIC_GROUP);
+			}
+			commitTransaction(em);
 
-			commitTransaction(em); // Cometer transacción
+			em.getEntityManagerFactory().getCache().evict(Grupo.class, grupo); // Las compras ven el grupo inactivo
+			IndiceConciertos.getInstance().invalidarGrupo(grupo);
+			agotados.invalidarGrupo(grupo);
+			PurgaGrupos.getInstance().programar(grupo);
 		} catch (Exception e) {
-			logger.error("Exception");
-			if (em.getTransaction().isActive()) {
-				System.out.println("Comit rollback");
-				rollbackTransaction(em);
-			}
-			logger.error(e.getLocalizedMessage());
-			if (e instanceof IncidentException) {
-				throw (IncidentException) e;
-			} else {
-				throw e;
-			}
-		}finally {
+			deshacer(em, "desactivarAsincrono", e);
+			throw e;
+		} finally {
 			em.close();
 		}
+	}
 
+	/**
+	 * Elimina de la caché de segundo nivel, del índice de conciertos y del registro de agotados un grupo desactivado
+	 * y sus conciertos y compras borrados. Las sentencias masivas no pasan por las entidades,
+	 * así que se desalojan las regiones completas de conciertos y compras.
+	 * 
+	 * @param em Gestor de entidades
+	 * @param grupo PK del grupo
+	 */
+	private void desalojarCache(EntityManager em, int grupo) {
+		Cache cache = em.getEntityManagerFactory().getCache();
+		cache.evict(Grupo.class, grupo);
+		cache.evict(Concierto.class);
+		cache.evict(Compra.class);
+		IndiceConciertos.getInstance().invalidarGrupo(grupo);
+		agotados.invalidarGrupo(grupo);
 	}
 
 	/**
 	 * Implementación de la transacción consultarGrupos.
 	 * Devuelve toda la información de todos los grupos, incluyendo conciertos,
 	 * compras para cada concierto y cliente de cada compra. Todo esto lo hace usando un grafo de entidades
-	 * con subgrafos
+	 * con subgrafos o con una consulta por nivel, según la estrategia de carga
 	 * 
 	 * @return Lista de grupos
 	 */
 	@Override
-    public List<Grupo> consultarGrupos() throws PersistenceException {
+	public List<Grupo> consultarGrupos() throws PersistenceException {
+		return medir("consultarGrupos", () -> consultarGruposEnTransaccion());
+	}
+
+	/**
+	 * Realiza la transacción consultarGrupos.
+	 * 
+	 * @return Lista de grupos
+	 * @throws PersistenceException si se produce un error
+	 */
+	private List<Grupo> consultarGruposEnTransaccion() throws PersistenceException {
         EntityManager em = this.createSession();
         try {
             beginTransaction(em); // Inicia la transacción
             DAOGrupo<Grupo,Integer> grupoDAO = new DAOGrupo<Grupo,Integer>(em);  
-            List<Grupo> listado = grupoDAO.consultar("gruposConConciertosComprasyClientes", "javax.persistence.fetchgraph"); // obtiene la información de los grupos usando el grafo
+            List<Grupo> listado = grupoDAO.consultar(estrategia, GRAFO_GRUPOS, PISTA_GRAFO); // obtiene la información de los grupos
+            completarFracciones(em, listado); // añade los tickets de los conciertos repartidos
             commitTransaction(em); // comete la transacción
             return listado; // Retorna los resultados
             
-        } catch (Exception e){
-        	logger.error("Exception");
-			if (em.getTransaction().isActive()) {
-				System.out.println("Comit rollback");
-				rollbackTransaction(em);
-			}
-			throw e;			
-			/*logger.error(e.getLocalizedMessage());
-			if (e instanceof IncidentException) {
-				throw (IncidentException) e;
-			} else {
-				throw e;
-			}*/
+        } catch (Exception e) {
+			deshacer(em, "consultarGrupos", e);
+			throw e;
         } finally {
             em.close();
         }
     }
 
+	/**
+	 * Completa los conciertos de los grupos con los tickets repartidos en fracciones, con una
+	 * consulta agrupada, para que {@link Concierto#getTicketsDisponibles()} dé el total.
+	 * 
+	 * @param em Gestor de entidades
+	 * @param grupos Grupos con sus conciertos cargados
+	 */
+	private static void completarFracciones(EntityManager em, List<Grupo> grupos) {
+		Map<Integer, Concierto> conciertos = new HashMap<>();
+		for (Grupo grupo : grupos) {
+			for (Concierto concierto : grupo.getConciertos()) {
+				conciertos.put(concierto.getIdconcierto(), concierto);
+			}
+		}
+		for (Map.Entry<Integer, Integer> fracciones : new DAOConcierto<Concierto, Integer>(em)
+				.findTicketsFracciones(conciertos.keySet()).entrySet()) {
+			conciertos.get(fracciones.getKey()).setTicketsFracciones(fracciones.getValue());
+		}
+	}
+
+	/**
+	 * Implementación de la transacción consultarGrupos paginada.
+	 * Primero lee los ids de la página por el índice de la PK y después carga esos grupos con el grafo,
+	 * ya que paginar la consulta con el grafo (que une conciertos y compras) obligaría a Hibernate
+	 * a traer todas las filas y paginar en memoria.
+	 * 
+	 * @param desdeIdGrupo idgrupo del último grupo de la página anterior, 0 para la primera página
+	 * @param tamPagina Número máximo de grupos
+	 * @return Lista de grupos ordenada por idgrupo
+	 */
+	@Override
+	public List<Grupo> consultarGrupos(int desdeIdGrupo, int tamPagina) throws PersistenceException {
+		return medir("consultarGrupos.pagina", () -> consultarGruposEnTransaccion(desdeIdGrupo, tamPagina));
+	}
+
+	/**
+	 * Realiza la transacción consultarGrupos paginada.
+	 * 
+	 * @param desdeIdGrupo idgrupo del último grupo de la página anterior
+	 * @param tamPagina Número máximo de grupos
+	 * @return Lista de grupos ordenada por idgrupo
+	 * @throws PersistenceException si se produce un error
+	 */
+	private List<Grupo> consultarGruposEnTransaccion(int desdeIdGrupo, int tamPagina) throws PersistenceException {
+		if (tamPagina <= 0) {
+			throw new IllegalArgumentException("Tamaño de página no válido: " + tamPagina);
+		}
+		EntityManager em = this.createSession();
+		try {
+			beginTransaction(em);
+			DAOGrupo<Grupo, Integer> grupoDAO = new DAOGrupo<Grupo, Integer>(em);
+			List<Grupo> pagina = grupoDAO.consultar(estrategia, grupoDAO.findIdsDesde(desdeIdGrupo, tamPagina),
+					GRAFO_GRUPOS, PISTA_GRAFO);
+			completarFracciones(em, pagina);
+			commitTransaction(em);
+			return pagina;
+		} catch (Exception e) {
+			deshacer(em, "consultarGrupos", e);
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Implementación de la transacción consultarGrupos por páginas con un consumidor.
+	 * Usa un único gestor de entidades y una transacción, y vacía el contexto de persistencia
+	 * después de cada página para que no acumule los grupos ya entregados.
+	 * 
+	 * @param consumidor Receptor de cada grupo
+	 * @param tamPagina Número de grupos leídos en cada consulta
+	 */
+	@Override
+	public void consultarGrupos(Consumer<Grupo> consumidor, int tamPagina) throws PersistenceException {
+		medir("consultarGrupos.consumidor", () -> {
+			consultarGruposEnTransaccion(consumidor, tamPagina);
+			return null;
+		});
+	}
+
+	/**
+	 * Realiza la transacción consultarGrupos por páginas con un consumidor.
+	 * 
+	 * @param consumidor Receptor de cada grupo
+	 * @param tamPagina Número de grupos leídos en cada consulta
+	 * @throws PersistenceException si se produce un error
+	 */
+	private void consultarGruposEnTransaccion(Consumer<Grupo> consumidor, int tamPagina) throws PersistenceException {
+		if (tamPagina <= 0) {
+			throw new IllegalArgumentException("Tamaño de página no válido: " + tamPagina);
+		}
+		EntityManager em = this.createSession();
+		try {
+			beginTransaction(em);
+			DAOGrupo<Grupo, Integer> grupoDAO = new DAOGrupo<Grupo, Integer>(em);
+			List<Integer> ids = grupoDAO.findIdsDesde(0, tamPagina);
+			while (!ids.isEmpty()) {
+				List<Grupo> pagina = grupoDAO.consultar(estrategia, ids, GRAFO_GRUPOS, PISTA_GRAFO);
+				completarFracciones(em, pagina);
+				for (Grupo grupo : pagina) {
+					consumidor.accept(grupo);
+				}
+				em.clear(); // los grupos entregados dejan de estar gestionados
+				ids = ids.size() < tamPagina ? new ArrayList<>()
+						: grupoDAO.findIdsDesde(ids.get(ids.size() - 1), tamPagina);
+			}
+			commitTransaction(em);
+		} catch (Exception e) {
+			deshacer(em, "consultarGrupos", e);
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Implementación de la transacción consultarResumenGrupos.
+	 * La sesión se pone en modo de solo lectura y sin volcados: las consultas son de columnas,
+	 * así que no se crean entidades gestionadas ni sus copias para detectar cambios.
+	 * 
+	 * @return Resumen de los grupos
+	 */
+	@Override
+	public List<ResumenGrupo> consultarResumenGrupos() throws PersistenceException {
+		return medir("consultarResumenGrupos", () -> consultarResumenGruposEnTransaccion());
+	}
+
+	/**
+	 * Realiza la transacción consultarResumenGrupos.
+	 * 
+	 * @return Resumen de los grupos
+	 * @throws PersistenceException si se produce un error
+	 */
+	private List<ResumenGrupo> consultarResumenGruposEnTransaccion() throws PersistenceException {
+		EntityManager em = this.createSession();
+		try {
+			Session sesion = em.unwrap(Session.class);
+			sesion.setDefaultReadOnly(true);
+			sesion.setHibernateFlushMode(FlushMode.MANUAL);
+			beginTransaction(em);
+			DAOGrupo<Grupo, Integer> grupoDAO = new DAOGrupo<Grupo, Integer>(em);
+			List<ResumenGrupo> resumen = grupoDAO.consultarResumen();
+			commitTransaction(em);
+			return resumen;
+		} catch (Exception e) {
+			deshacer(em, "consultarResumenGrupos", e);
+			throw e;
+		} finally {
+			em.close();
+		}
+	}
+
 }
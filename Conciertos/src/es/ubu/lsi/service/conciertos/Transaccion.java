@@ -0,0 +1,21 @@
+package es.ubu.lsi.service.conciertos;
+
+import es.ubu.lsi.service.PersistenceException;
+
+/**
+ * Transacción del servicio, ejecutada con su propio gestor de entidades.
+ *
+ * @param <T> tipo del resultado
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+@FunctionalInterface
+public interface Transaccion<T> {
+
+	/**
+	 * Ejecuta la transacción.
+	 * 
+	 * @return resultado
+	 * @throws PersistenceException si se produce un error
+	 */
+	T ejecutar() throws PersistenceException;
+}
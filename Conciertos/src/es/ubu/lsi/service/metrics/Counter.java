@@ -0,0 +1,43 @@
+package es.ubu.lsi.service.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter. Updates from many threads do not contend on a single variable.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public final class Counter {
+
+	/** Count. */
+	private final LongAdder count = new LongAdder();
+
+	/** Increments the counter by one. */
+	public void increment() {
+		count.increment();
+	}
+
+	/**
+	 * Increments the counter.
+	 * 
+	 * @param amount amount to add
+	 */
+	public void increment(long amount) {
+		count.add(amount);
+	}
+
+	/**
+	 * Gets the count.
+	 * 
+	 * @return count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(getCount());
+	}
+}
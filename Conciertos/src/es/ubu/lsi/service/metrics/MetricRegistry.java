@@ -0,0 +1,132 @@
+package es.ubu.lsi.service.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the application metrics: timers, counters and gauges identified by a dotted name
+ * (e.g. <code>service.comprar</code>).
+ * 
+ * Metrics are created on first use and never removed, so callers may keep them in fields.
+ * Looking a metric up is a single concurrent map read.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public final class MetricRegistry {
+
+	/** Singleton instance. */
+	private static final MetricRegistry INSTANCE = new MetricRegistry();
+
+	/** Timers by name. */
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	/** Counters by name. */
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	/** Gauges by name. */
+	private final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+	/** Constructor. */
+	private MetricRegistry() {
+	}
+
+	/**
+	 * Gets the registry.
+	 * 
+	 * @return singleton instance
+	 */
+	public static MetricRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets a timer, creating it if needed.
+	 * 
+	 * @param name name
+	 * @return timer
+	 */
+	public Timer timer(String name) {
+		Timer timer = timers.get(name);
+		return timer != null ? timer : timers.computeIfAbsent(name, k -> new Timer());
+	}
+
+	/**
+	 * Gets a counter, creating it if needed.
+	 * 
+	 * @param name name
+	 * @return counter
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		return counter != null ? counter : counters.computeIfAbsent(name, k -> new Counter());
+	}
+
+	/**
+	 * Registers a gauge, a value read when the metrics are reported. Replaces any gauge with the same name.
+	 * 
+	 * @param name name
+	 * @param gauge supplier of the current value
+	 */
+	public void gauge(String name, Supplier<? extends Number> gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Gets the timers.
+	 * 
+	 * @return timers sorted by name
+	 */
+	public Map<String, Timer> getTimers() {
+		return new TreeMap<>(timers);
+	}
+
+	/**
+	 * Gets the counters.
+	 * 
+	 * @return counters sorted by name
+	 */
+	public Map<String, Counter> getCounters() {
+		return new TreeMap<>(counters);
+	}
+
+	/**
+	 * Gets the current value of the gauges.
+	 * 
+	 * @return values sorted by name, null if a gauge is not available
+	 */
+	public Map<String, Number> getGauges() {
+		Map<String, Number> values = new TreeMap<>();
+		for (Map.Entry<String, Supplier<? extends Number>> gauge : gauges.entrySet()) {
+			Number value;
+			try {
+				value = gauge.getValue().get();
+			} catch (RuntimeException e) {
+				value = null;
+			}
+			values.put(gauge.getKey(), value);
+		}
+		return values;
+	}
+
+	/**
+	 * Formats all the metrics, one per line.
+	 * 
+	 * @return report
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<String, Timer> timer : getTimers().entrySet()) {
+			report.append(timer.getKey()).append(' ').append(timer.getValue()).append('\n');
+		}
+		for (Map.Entry<String, Counter> counter : getCounters().entrySet()) {
+			report.append(counter.getKey()).append(' ').append(counter.getValue()).append('\n');
+		}
+		for (Map.Entry<String, Number> gauge : getGauges().entrySet()) {
+			report.append(gauge.getKey()).append(' ').append(gauge.getValue()).append('\n');
+		}
+		return report.toString();
+	}
+}
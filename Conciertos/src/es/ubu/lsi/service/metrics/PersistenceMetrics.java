@@ -0,0 +1,82 @@
+package es.ubu.lsi.service.metrics;
+
+import java.util.function.ToLongFunction;
+
+import org.hibernate.stat.Statistics;
+
+import es.ubu.lsi.service.PersistenceFactorySingleton;
+import es.ubu.lsi.service.PoolStatistics;
+
+/**
+ * Gauges exporting the Hibernate statistics (hibernate.generate_statistics) and the usage of
+ * the connection pool. Values are read from the persistence layer only when reported.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public final class PersistenceMetrics {
+
+	/** Constructor. */
+	private PersistenceMetrics() {
+	}
+
+	/**
+	 * Registers the gauges.
+	 * 
+	 * @param registry registry
+	 */
+	public static void register(MetricRegistry registry) {
+		hibernate(registry, "entity.loads", Statistics::getEntityLoadCount);
+		hibernate(registry, "entity.fetches", Statistics::getEntityFetchCount);
+		hibernate(registry, "entity.inserts", Statistics::getEntityInsertCount);
+		hibernate(registry, "entity.updates", Statistics::getEntityUpdateCount);
+		hibernate(registry, "entity.deletes", Statistics::getEntityDeleteCount);
+		hibernate(registry, "collection.loads", Statistics::getCollectionLoadCount);
+		hibernate(registry, "flushes", Statistics::getFlushCount);
+		hibernate(registry, "statements", Statistics::getPrepareStatementCount);
+		hibernate(registry, "queries", Statistics::getQueryExecutionCount);
+		hibernate(registry, "queries.maxTime", Statistics::getQueryExecutionMaxTime);
+		hibernate(registry, "transactions", Statistics::getTransactionCount);
+		hibernate(registry, "optimisticFailures", Statistics::getOptimisticFailureCount);
+		hibernate(registry, "cache.hits", Statistics::getSecondLevelCacheHitCount);
+		hibernate(registry, "cache.misses", Statistics::getSecondLevelCacheMissCount);
+		registry.gauge("hibernate.cache.hitRatio", () -> {
+			Statistics statistics = PersistenceFactorySingleton.getStatistics();
+			long hits = statistics.getSecondLevelCacheHitCount();
+			long total = hits + statistics.getSecondLevelCacheMissCount();
+			return total == 0 ? 0 : hits / (double) total;
+		});
+
+		registry.gauge("pool.active", () -> pool().getActive());
+		registry.gauge("pool.idle", () -> pool().getIdle());
+		registry.gauge("pool.waiting", () -> pool().getWaiting());
+		registry.gauge("pool.maxSize", PersistenceFactorySingleton::getMaxPoolSize);
+		registry.gauge("pool.meanWaitMillis", () -> pool().getMeanWaitMillis());
+	}
+
+	/**
+	 * Registers a gauge reading a Hibernate statistic.
+	 * 
+	 * @param registry registry
+	 * @param name name without the <code>hibernate.</code> prefix
+	 * @param statistic getter of the statistic
+	 */
+	private static void hibernate(MetricRegistry registry, String name, ToLongFunction<Statistics> statistic) {
+		registry.gauge("hibernate." + name,
+				() -> statistic.applyAsLong(PersistenceFactorySingleton.getStatistics()));
+	}
+
+	/**
+	 * Gets the pool usage.
+	 * 
+	 * @return statistics
+	 * @throws IllegalStateException with the internal Hibernate pool, reported as not available
+	 */
+	private static PoolStatistics pool() {
+		PoolStatistics statistics = PersistenceFactorySingleton.getPoolStatistics();
+		if (statistics == null) {
+			throw new IllegalStateException("No pool statistics with the internal Hibernate pool");
+		}
+		return statistics;
+	}
+}
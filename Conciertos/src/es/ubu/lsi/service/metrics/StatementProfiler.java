@@ -0,0 +1,235 @@
+package es.ubu.lsi.service.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Diagnostics mode counting the SQL statements of each service call, to catch N+1 selects
+ * (lazy collections walked in a loop) and per-row statements in the DAO layer.
+ * 
+ * It is enabled with <code>-Dconciertos.statements.threshold=N</code>: Hibernate then passes every
+ * statement through this inspector, which attributes it to the current service operation
+ * ({@link #begin(String)}) and DAO method ({@link #enterDao(String)}). Statements issued outside
+ * any DAO method, such as lazy loads and flushes, are attributed to <code>(no DAO)</code>.
+ * Calls with more than N statements are logged with their most repeated statements, and the worst
+ * call of each operation is kept for {@link #report()}.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public class StatementProfiler implements StatementInspector {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(StatementProfiler.class);
+
+	/** System property with the maximum number of statements of a call, 0 (default) disables the profiler. */
+	public static final String THRESHOLD_PROPERTY = "conciertos.statements.threshold";
+
+	/** Hibernate property to register a statement inspector. */
+	public static final String INSPECTOR_PROPERTY = "hibernate.session_factory.statement_inspector";
+
+	/** Maximum number of statements of a call. */
+	private static final int THRESHOLD = Integer.getInteger(THRESHOLD_PROPERTY, 0);
+
+	/** Distinct statements shown for an offending call. */
+	private static final int TOP_STATEMENTS = 5;
+
+	/** Attribution of the statements outside DAO methods. */
+	private static final String NO_DAO = "(no DAO)";
+
+	/** Service call of the current thread. */
+	private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+
+	/** DAO method of the current thread. */
+	private static final ThreadLocal<String> DAO_METHOD = new ThreadLocal<>();
+
+	/** Worst call of each operation over the threshold. */
+	private static final Map<String, Offender> WORST = new ConcurrentHashMap<>();
+
+	/**
+	 * Checks if the profiler is enabled.
+	 * 
+	 * @return true if a threshold has been set
+	 */
+	public static boolean isEnabled() {
+		return THRESHOLD > 0;
+	}
+
+	/**
+	 * Starts counting the statements of a service call in the current thread. Nested calls
+	 * are counted in the outermost one.
+	 * 
+	 * @param operation service operation
+	 */
+	public static void begin(String operation) {
+		if (!isEnabled()) {
+			return;
+		}
+		Scope scope = SCOPE.get();
+		if (scope == null) {
+			SCOPE.set(new Scope(operation));
+		} else {
+			scope.depth++;
+		}
+	}
+
+	/**
+	 * Ends the service call of the current thread, reporting it if it exceeds the threshold.
+	 */
+	public static void end() {
+		Scope scope = SCOPE.get();
+		if (scope == null) {
+			return;
+		}
+		if (scope.depth > 0) {
+			scope.depth--;
+			return;
+		}
+		SCOPE.remove();
+		MetricRegistry.getInstance().counter("statements." + scope.operation).increment(scope.total);
+		if (scope.total > THRESHOLD) {
+			Offender offender = new Offender(scope);
+			WORST.merge(scope.operation, offender, (old, current) -> current.statements > old.statements ? current : old);
+			logger.warn("{}", offender);
+		}
+	}
+
+	/**
+	 * Sets the DAO method issuing the next statements of the current thread.
+	 * 
+	 * @param method DAO class and method
+	 * @return previous DAO method, to be given back to {@link #exitDao(String)}
+	 */
+	public static String enterDao(String method) {
+		if (!isEnabled()) {
+			return null;
+		}
+		String previous = DAO_METHOD.get();
+		DAO_METHOD.set(method);
+		return previous;
+	}
+
+	/**
+	 * Restores the DAO method of the current thread.
+	 * 
+	 * @param previous value returned by {@link #enterDao(String)}
+	 */
+	public static void exitDao(String previous) {
+		if (!isEnabled()) {
+			return;
+		}
+		if (previous == null) {
+			DAO_METHOD.remove();
+		} else {
+			DAO_METHOD.set(previous);
+		}
+	}
+
+	@Override
+	public String inspect(String sql) {
+		Scope scope = SCOPE.get();
+		if (scope != null) {
+			String method = DAO_METHOD.get();
+			scope.record(method == null ? NO_DAO : method, sql);
+		}
+		return sql;
+	}
+
+	/**
+	 * Gets the worst call of each operation over the threshold.
+	 * 
+	 * @return offenders, the one with more statements first
+	 */
+	public static List<Offender> getWorstOffenders() {
+		List<Offender> offenders = new ArrayList<>(WORST.values());
+		offenders.sort(Comparator.comparingInt(Offender::getStatements).reversed());
+		return offenders;
+	}
+
+	/**
+	 * Formats the worst offenders.
+	 * 
+	 * @return report, empty if no call has exceeded the threshold
+	 */
+	public static String report() {
+		StringBuilder report = new StringBuilder();
+		for (Offender offender : getWorstOffenders()) {
+			report.append(offender).append('\n');
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Statements of a service call in progress. Only used by its thread.
+	 */
+	private static final class Scope {
+
+		private final String operation;
+		private final Map<String, Integer> counts = new HashMap<>();
+		private int total;
+		private int depth;
+
+		Scope(String operation) {
+			this.operation = operation;
+		}
+
+		void record(String method, String sql) {
+			total++;
+			counts.merge(method + ": " + sql, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Service call over the threshold, with its most repeated statements. Immutable.
+	 */
+	public static final class Offender {
+
+		private final String operation;
+		private final int statements;
+		private final List<String> top;
+
+		private Offender(Scope scope) {
+			this.operation = scope.operation;
+			this.statements = scope.total;
+			List<Map.Entry<String, Integer>> entries = new ArrayList<>(scope.counts.entrySet());
+			entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+			List<String> lines = new ArrayList<>();
+			for (Map.Entry<String, Integer> entry : entries.subList(0, Math.min(TOP_STATEMENTS, entries.size()))) {
+				lines.add(entry.getValue() + " x " + entry.getKey());
+			}
+			this.top = Collections.unmodifiableList(lines);
+		}
+
+		public String getOperation() {
+			return operation;
+		}
+
+		public int getStatements() {
+			return statements;
+		}
+
+		public List<String> getTopStatements() {
+			return top;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder(operation).append(": ").append(statements)
+					.append(" statements (threshold ").append(THRESHOLD).append(')');
+			for (String line : top) {
+				text.append("\n\t").append(line);
+			}
+			return text.toString();
+		}
+	}
+}
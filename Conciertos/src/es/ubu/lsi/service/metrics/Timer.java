@@ -0,0 +1,180 @@
+package es.ubu.lsi.service.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with logarithmic buckets.
+ * 
+ * Each power of two is split in {@value #SUB_BUCKETS} buckets, so percentiles are accurate to
+ * 25% with a fixed memory footprint and no allocation when recording. All the counters are
+ * {@link LongAdder}s, so recording from many threads does not contend.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+public final class Timer {
+
+	/** Buckets per power of two. */
+	private static final int SUB_BUCKETS = 4;
+
+	/** Bits to select the bucket inside a power of two. */
+	private static final int SUB_BUCKET_BITS = 2;
+
+	/** Number of buckets, enough for any positive long. */
+	private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+	/** Number of recorded values. */
+	private final LongAdder count = new LongAdder();
+
+	/** Sum of the recorded values. */
+	private final LongAdder total = new LongAdder();
+
+	/** Maximum recorded value. */
+	private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+	/** Values recorded in each bucket. */
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	/** Constructor. */
+	public Timer() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Gets the bucket of a value.
+	 * 
+	 * @param nanos value
+	 * @return bucket index
+	 */
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS * (exponent - 1) + sub;
+	}
+
+	/**
+	 * Gets the greatest value of a bucket.
+	 * 
+	 * @param bucket bucket index
+	 * @return upper bound
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + 1;
+		long sub = bucket % SUB_BUCKETS;
+		long limit = (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS);
+		return limit <= 0 ? Long.MAX_VALUE : limit - 1;
+	}
+
+	/**
+	 * Gets the start time of a measure.
+	 * 
+	 * @return start time in nanoseconds
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the time elapsed since a start time.
+	 * 
+	 * @param start start time from {@link #start()}
+	 */
+	public void stop(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Records a value.
+	 * 
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+		buckets[bucket(value)].increment();
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 * 
+	 * @return count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Gets the sum of the recorded values.
+	 * 
+	 * @return total time in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return total.sum();
+	}
+
+	/**
+	 * Gets the maximum recorded value.
+	 * 
+	 * @return maximum in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean of the recorded values.
+	 * 
+	 * @return mean in milliseconds
+	 */
+	public double getMeanMillis() {
+		long n = getCount();
+		return n == 0 ? 0 : getTotalNanos() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Gets an approximate percentile. Concurrent updates may make it slightly inconsistent.
+	 * 
+	 * @param percentile percentile between 0 and 100
+	 * @return upper bound of the bucket of the percentile, in nanoseconds
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			n += counts[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	@Override
+	public String toString() {
+		double millis = TimeUnit.MILLISECONDS.toNanos(1);
+		return String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", getCount(),
+				getMeanMillis(), getPercentileNanos(50) / millis, getPercentileNanos(99) / millis,
+				getPercentileNanos(99.9) / millis, getMaxNanos() / millis);
+	}
+}
@@ -0,0 +1,431 @@
+package es.ubu.lsi.test;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.ubu.lsi.service.PersistenceException;
+import es.ubu.lsi.service.PersistenceFactorySingleton;
+import es.ubu.lsi.service.VirtualThreads;
+import es.ubu.lsi.service.metrics.MetricRegistry;
+import es.ubu.lsi.service.metrics.StatementProfiler;
+import es.ubu.lsi.service.conciertos.AgrupadorCompras;
+import es.ubu.lsi.service.conciertos.IncidentException;
+import es.ubu.lsi.service.conciertos.InventarioTickets;
+import es.ubu.lsi.service.conciertos.ResultadoCompra;
+import es.ubu.lsi.service.conciertos.Service;
+import es.ubu.lsi.service.conciertos.ServiceImpl;
+import es.ubu.lsi.test.util.GeneradorDatos;
+
+/**
+ * Generador de carga multihilo sobre el servicio.
+ *
+ * Lanza una mezcla configurable de comprar, desactivar y consultarGrupos desde muchos hilos
+ * contra una única instancia del servicio, con un concierto "caliente" que recibe la fracción
+ * indicada de las compras, y al terminar informa del rendimiento, los percentiles de latencia,
+ * los errores por IncidentError y comprueba que no se han vendido más tickets de los disponibles.
+ * Por defecto usa la base de datos embebida con un pool de conexiones bloqueante de tantas conexiones
+ * como hilos (<code>conciertos.pool.max</code>); con el pool interno de Hibernate, que falla en
+ * lugar de esperar, los hilos se limitan a su tamaño. Las peticiones que fallan por no obtener
+ * conexión se cuentan aparte de los errores.
+ *
+ * Se configura con propiedades de sistema <code>conciertos.carga.*</code>:
+ * <ul>
+ * <li><code>hilos</code> (32), <code>virtuales</code> (false, se ignora antes de Java 21),
+ * <code>duracion</code> en segundos (30), <code>tasa</code> peticiones por segundo en total
+ * (0 sin límite).</li>
+ * <li><code>comprar</code>, <code>desactivar</code>, <code>consultar</code>: pesos de cada
+ * operación (90, 1, 9).</li>
+ * <li><code>caliente</code>: fracción de las compras al concierto caliente (0.8).</li>
+ * <li><code>agrupar</code>: realiza las compras con {@link AgrupadorCompras} (false).</li>
+ * <li><code>fracciones</code>: fracciones en las que se reparten los tickets del concierto
+ * caliente (0, sin repartir).</li>
+ * <li><code>inventario</code>: realiza las compras y desactivaciones con {@link InventarioTickets}
+ * (false) y al terminar lo concilia con la base de datos.</li>
+ * <li><code>grupos</code> (20), <code>conciertos</code> por grupo (10), <code>clientes</code> (1000),
+ * <code>compras</code> previas por concierto (10), <code>tickets</code> por concierto (2000).</li>
+ * </ul>
+ *
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class GeneradorCarga {
+
+	/** Logger. */
+	private static final Logger logger = LoggerFactory.getLogger(GeneradorCarga.class);
+
+	/** Operaciones de la mezcla. */
+	private enum Operacion {
+		COMPRAR, DESACTIVAR, CONSULTAR
+	}
+
+	/** Hilos por defecto. */
+	private static final int HILOS = 32;
+
+	private int hilos = propiedad("hilos", HILOS);
+	private final boolean virtuales = Boolean.getBoolean("conciertos.carga.virtuales") && VirtualThreads.isAvailable();
+	private final int duracion = propiedad("duracion", 30);
+	private final int tasa = propiedad("tasa", 0);
+	private final int pesoComprar = propiedad("comprar", 90);
+	private final int pesoDesactivar = propiedad("desactivar", 1);
+	private final int pesoConsultar = propiedad("consultar", 9);
+	private final boolean agrupar = Boolean.getBoolean("conciertos.carga.agrupar");
+	private final boolean inventario = Boolean.getBoolean("conciertos.carga.inventario");
+	private final double caliente = Double.parseDouble(System.getProperty("conciertos.carga.caliente", "0.8"));
+	private final int tickets = propiedad("tickets", 2000);
+	private final int fracciones = propiedad("fracciones", 0);
+
+	private final int comprasPrevias = propiedad("compras", 10);
+
+	private final GeneradorDatos datos = new GeneradorDatos(propiedad("grupos", 20), propiedad("conciertos", 10),
+			propiedad("clientes", 1000), comprasPrevias, tickets);
+
+	/** Servicio compartido por todos los hilos. */
+	private Service servicio;
+
+	/** Agrupador de las compras, null si no se agrupan. */
+	private AgrupadorCompras agrupador;
+
+	/** Inventario en memoria, null si no se usa. */
+	private InventarioTickets existencias;
+
+	/** Latencias por operación. */
+	private final Map<Operacion, Muestras> latencias = new ConcurrentHashMap<>();
+
+	/** Peticiones correctas por operación. */
+	private final Map<Operacion, LongAdder> correctas = new ConcurrentHashMap<>();
+
+	/** Errores por operación y tipo (IncidentError o clase de la excepción). */
+	private final Map<String, LongAdder> errores = new ConcurrentHashMap<>();
+
+	/** Peticiones fallidas por no obtener una conexión del pool, por operación. */
+	private final Map<Operacion, LongAdder> sinConexion = new ConcurrentHashMap<>();
+
+	/** Siguiente instante de inicio planificado con tasa limitada, en nanosegundos. */
+	private final AtomicLong siguiente = new AtomicLong();
+
+	/**
+	 * Main.
+	 *
+	 * @param args arguments.
+	 */
+	public static void main(String[] args) {
+		if (System.getProperty(PersistenceFactorySingleton.PERSISTENCE_CONTEXT_PROPERTY) == null) {
+			System.setProperty(PersistenceFactorySingleton.PERSISTENCE_CONTEXT_PROPERTY,
+					PersistenceFactorySingleton.EMBEDDED_PERSISTENCE_CONTEXT_NAME);
+		}
+		if (System.getProperty("conciertos.pool.max") == null) {
+			// Una conexión por hilo: la carga mide la contención en la base de datos, no la espera por el pool
+			System.setProperty("conciertos.pool.max", String.valueOf(propiedad("hilos", HILOS)));
+		}
+		try {
+			new GeneradorCarga().ejecutar();
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			logger.error("Error grave en la aplicación {}", ex.getMessage());
+		} finally {
+			PersistenceFactorySingleton.close();
+		}
+	}
+
+	/**
+	 * Lee una propiedad entera <code>conciertos.carga.nombre</code>.
+	 */
+	private static int propiedad(String nombre, int defecto) {
+		return Integer.getInteger("conciertos.carga." + nombre, defecto);
+	}
+
+	/**
+	 * Puebla la base de datos, lanza la carga durante el tiempo indicado e informa del resultado.
+	 *
+	 * @throws InterruptedException si se interrumpe la espera
+	 * @throws PersistenceException si no se puede abrir el inventario en memoria
+	 */
+	public void ejecutar() throws InterruptedException, PersistenceException {
+		datos.generar();
+		int conexiones = PersistenceFactorySingleton.getMaxPoolSize();
+		if (PersistenceFactorySingleton.getPoolStatistics() == null && hilos > conexiones) {
+			// El pool interno de Hibernate no espera: con más hilos que conexiones se mediría su agotamiento
+			logger.warn("Hilos limitados a {}, el tamaño del pool interno de Hibernate", conexiones);
+			hilos = conexiones;
+		}
+		servicio = new ServiceImpl();
+		if (fracciones > 0) {
+			servicio.repartirTickets(GeneradorDatos.fecha(datos.idConcierto(1, 0)), 1, fracciones);
+		}
+		if (agrupar) {
+			agrupador = AgrupadorCompras.desdePropiedades(servicio);
+		}
+		if (inventario) {
+			existencias = InventarioTickets.desdePropiedades(servicio);
+		}
+		for (Operacion operacion : Operacion.values()) {
+			latencias.put(operacion, new Muestras());
+			correctas.put(operacion, new LongAdder());
+			sinConexion.put(operacion, new LongAdder());
+		}
+
+		System.out.println("Carga: " + hilos + (virtuales ? " hilos virtuales" : " hilos") + ", " + duracion
+				+ " s, tasa " + (tasa > 0 ? tasa + " pet/s" : "sin límite") + ", mezcla comprar/desactivar/consultar "
+				+ pesoComprar + "/" + pesoDesactivar + "/" + pesoConsultar + ", concierto caliente " + caliente
+				+ (agrupar ? ", compras agrupadas" : "") + (inventario ? ", inventario en memoria" : "")
+				+ (fracciones > 0 ? ", " + fracciones + " fracciones" : ""));
+
+		ExecutorService executor = virtuales ? VirtualThreads.newThreadPerTaskExecutor()
+				: Executors.newFixedThreadPool(hilos);
+		long inicio = System.nanoTime();
+		long fin = inicio + TimeUnit.SECONDS.toNanos(duracion);
+		siguiente.set(inicio);
+		for (int i = 0; i < hilos; i++) {
+			executor.execute(() -> bucle(fin));
+		}
+		executor.shutdown();
+		executor.awaitTermination(duracion + 60L, TimeUnit.SECONDS);
+		if (agrupador != null) {
+			agrupador.close();
+		}
+		if (existencias != null) {
+			existencias.esperar(1, TimeUnit.MINUTES);
+			System.out.println("Descuadres del inventario: " + existencias.conciliar());
+			existencias.close();
+		}
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+
+		informar(segundos);
+		comprobarVentas();
+	}
+
+	/**
+	 * Bucle de un hilo: lanza peticiones hasta el instante de fin.
+	 */
+	private void bucle(long fin) {
+		long intervalo = tasa > 0 ? TimeUnit.SECONDS.toNanos(1) / tasa : 0;
+		while (true) {
+			long planificado = System.nanoTime();
+			if (intervalo > 0) {
+				// Con tasa fija la latencia se mide desde el instante planificado, no desde el real
+				planificado = siguiente.getAndAdd(intervalo);
+				long espera = planificado - System.nanoTime();
+				if (espera > 0) {
+					LockSupport.parkNanos(espera);
+				}
+			}
+			if (planificado >= fin) {
+				return;
+			}
+			Operacion operacion = elegir();
+			try {
+				ejecutar(operacion);
+				correctas.get(operacion).increment();
+			} catch (IncidentException ex) {
+				contarError(operacion, String.valueOf(ex.getError()));
+			} catch (Exception ex) {
+				if (esFaltaDeConexion(ex)) {
+					sinConexion.get(operacion).increment();
+				} else {
+					contarError(operacion, ex.getClass().getSimpleName());
+				}
+			}
+			latencias.get(operacion).registrar(System.nanoTime() - planificado);
+		}
+	}
+
+	/**
+	 * Elige la siguiente operación según los pesos de la mezcla.
+	 */
+	private Operacion elegir() {
+		int valor = ThreadLocalRandom.current().nextInt(pesoComprar + pesoDesactivar + pesoConsultar);
+		if (valor < pesoComprar) {
+			return Operacion.COMPRAR;
+		}
+		return valor < pesoComprar + pesoDesactivar ? Operacion.DESACTIVAR : Operacion.CONSULTAR;
+	}
+
+	/**
+	 * Ejecuta una petición. El grupo 1, que tiene el concierto caliente, no se desactiva.
+	 */
+	private void ejecutar(Operacion operacion) throws Exception {
+		ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+		switch (operacion) {
+		case COMPRAR:
+			int grupo = 1;
+			int concierto = datos.idConcierto(1, 0);
+			if (aleatorio.nextDouble() >= caliente) {
+				grupo = 1 + aleatorio.nextInt(datos.getGrupos());
+				concierto = datos.idConcierto(grupo, aleatorio.nextInt(datos.getConciertosPorGrupo()));
+			}
+			if (agrupador != null) {
+				comprarAgrupada(grupo, concierto, 1 + aleatorio.nextInt(4));
+				break;
+			}
+			if (existencias != null) {
+				existencias.comprar(GeneradorDatos.fecha(concierto),
+						GeneradorDatos.nif(aleatorio.nextInt(datos.getClientes())), grupo, 1 + aleatorio.nextInt(4));
+				break;
+			}
+			servicio.comprar(GeneradorDatos.fecha(concierto), GeneradorDatos.nif(aleatorio.nextInt(datos.getClientes())),
+					grupo, 1 + aleatorio.nextInt(4));
+			break;
+		case DESACTIVAR:
+			int desactivado = datos.getGrupos() > 1 ? 2 + aleatorio.nextInt(datos.getGrupos() - 1) : 1;
+			if (existencias != null) {
+				existencias.desactivar(desactivado);
+			} else {
+				servicio.desactivar(desactivado);
+			}
+			break;
+		default:
+			servicio.consultarGrupos();
+		}
+	}
+
+	/**
+	 * Realiza una compra con el agrupador y espera su resultado, lanzando los rechazos y errores
+	 * igual que la compra individual.
+	 */
+	private void comprarAgrupada(int grupo, int concierto, int cantidad) throws Exception {
+		ResultadoCompra resultado;
+		try {
+			resultado = agrupador.comprar(GeneradorDatos.fecha(concierto),
+					GeneradorDatos.nif(ThreadLocalRandom.current().nextInt(datos.getClientes())), grupo, cantidad).get();
+		} catch (ExecutionException ex) {
+			throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+		}
+		if (!resultado.isRealizada()) {
+			throw IncidentException.of(resultado.getError());
+		}
+	}
+
+	/**
+	 * Comprueba si la petición falló por no obtener una conexión del pool: tiempo de espera agotado
+	 * en un pool bloqueante o pool interno de Hibernate sin conexiones libres.
+	 */
+	private static boolean esFaltaDeConexion(Throwable ex) {
+		for (Throwable t = ex; t != null; t = t.getCause()) {
+			String mensaje = String.valueOf(t.getMessage());
+			if (t instanceof SQLTransientConnectionException || mensaje.contains("Unable to acquire JDBC Connection")
+					|| mensaje.contains("connection pool has reached its maximum size")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Cuenta un error de una operación.
+	 */
+	private void contarError(Operacion operacion, String tipo) {
+		errores.computeIfAbsent(operacion + " " + tipo, k -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Muestra rendimiento, percentiles de latencia, errores y las métricas del servicio.
+	 */
+	private void informar(double segundos) {
+		System.out.println(String.format("%-11s %9s %9s %9s %9s %9s %9s %9s %9s %9s", "Operación", "correctas",
+				"fallidas", "sin conex", "pet/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "máx ms"));
+		for (Operacion operacion : Operacion.values()) {
+			long[] muestras = latencias.get(operacion).ordenadas();
+			long ok = correctas.get(operacion).sum();
+			long conexion = sinConexion.get(operacion).sum();
+			System.out.println(String.format("%-11s %9d %9d %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f", operacion, ok,
+					muestras.length - ok - conexion, conexion, muestras.length / segundos, percentil(muestras, 50),
+					percentil(muestras, 90), percentil(muestras, 99), percentil(muestras, 99.9),
+					percentil(muestras, 100)));
+		}
+		System.out.println("Errores: " + new TreeMap<>(errores));
+		System.out.println("Métricas:\n" + MetricRegistry.getInstance().report());
+		if (StatementProfiler.isEnabled()) {
+			System.out.println("Llamadas con más sentencias:\n" + StatementProfiler.report());
+		}
+	}
+
+	/**
+	 * Percentil de unas muestras ordenadas, en milisegundos.
+	 */
+	private static double percentil(long[] ordenadas, double percentil) {
+		if (ordenadas.length == 0) {
+			return 0;
+		}
+		int posicion = (int) Math.ceil(percentil / 100 * ordenadas.length) - 1;
+		return ordenadas[Math.max(0, Math.min(posicion, ordenadas.length - 1))] / 1e6;
+	}
+
+	/**
+	 * Comprueba en la base de datos que ningún concierto tiene tickets negativos y que los
+	 * tickets restantes más los vendidos durante la carga suman los iniciales.
+	 */
+	private void comprobarVentas() {
+		EntityManager em = PersistenceFactorySingleton.getEntityManager();
+		try {
+			long compras = em.createQuery("select count(c) from Compra c", Long.class).getSingleResult();
+			List<Object[]> filas = em.createQuery("select c.idconcierto, c.tickets, "
+					+ "(select coalesce(sum(cp.nTickets), 0) from Compra cp "
+					+ "where cp.concierto = c and cp.idcompra > :generadas), "
+					+ "(select coalesce(sum(f.tickets), 0) from FraccionTickets f "
+					+ "where f.id.idconcierto = c.idconcierto) "
+					+ "from Concierto c", Object[].class)
+					.setParameter("generadas", generadas()).getResultList();
+			int incorrectos = 0;
+			for (Object[] fila : filas) {
+				int restantes = ((Number) fila[1]).intValue() + ((Number) fila[3]).intValue();
+				long vendidos = ((Number) fila[2]).longValue();
+				if (restantes < 0 || restantes + vendidos != tickets) {
+					incorrectos++;
+					System.out.println("\tERROR concierto " + fila[0] + ": quedan " + restantes + " y se han vendido "
+							+ vendidos + " de " + tickets);
+				}
+			}
+			if (incorrectos == 0) {
+				System.out.println("\tOK sin sobreventa en " + filas.size() + " conciertos (" + compras
+						+ " compras en total)");
+			}
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Número de compras generadas antes de la carga, que tienen las PK 1 ... n.
+	 */
+	private int generadas() {
+		return datos.getGrupos() * datos.getConciertosPorGrupo() * comprasPrevias;
+	}
+
+	/**
+	 * Latencias registradas por varios hilos.
+	 */
+	private static final class Muestras {
+
+		private long[] valores = new long[4096];
+		private int total;
+
+		synchronized void registrar(long nanos) {
+			if (total == valores.length) {
+				valores = Arrays.copyOf(valores, total * 2);
+			}
+			valores[total++] = nanos;
+		}
+
+		synchronized long[] ordenadas() {
+			long[] copia = Arrays.copyOf(valores, total);
+			Arrays.sort(copia);
+			return copia;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package es.ubu.lsi.test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.ubu.lsi.service.PersistenceFactorySingleton;
+import es.ubu.lsi.service.conciertos.IncidentError;
+import es.ubu.lsi.service.conciertos.IncidentException;
+import es.ubu.lsi.service.conciertos.Service;
+import es.ubu.lsi.service.conciertos.ServiceImpl;
+
+/**
+ * Test de concurrencia.
+ * 
+ * Comparte una única instancia de ServiceImpl entre muchos hilos que compran a la vez
+ * tickets del mismo concierto y consultan los grupos, y comprueba que no se venden más
+ * tickets de los disponibles ni se pierden compras. Se ejecuta sobre la base de datos
+ * embebida, por lo que no necesita Oracle.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class TestConcurrencia {
+
+	/** Logger. */
+	private static final Logger logger = LoggerFactory.getLogger(TestConcurrencia.class);
+
+	/** Número de hilos compradores. */
+	private static final int HILOS = Integer.getInteger("conciertos.test.hilos", 48);
+
+	/** Tickets iniciales y compras previas del concierto 1 en los datos de prueba. */
+	private static final int TICKETS_INICIALES = 100;
+	private static final int COMPRAS_INICIALES = 3;
+
+	/** Clientes de los datos de prueba. */
+	private static final String[] NIFS = { "1111111F", "7352353T", "7666832Y" };
+
+	/** Simple date format. */
+	private static SimpleDateFormat dateformat = new SimpleDateFormat("dd/MM/yyyy HH:mm");
+
+	/**
+	 * Main.
+	 * 
+	 * @param args arguments.
+	 */
+	public static void main(String[] args) {
+		// Sin Oracle: base de datos embebida salvo que se indique otra unidad de persistencia
+		if (System.getProperty(PersistenceFactorySingleton.PERSISTENCE_CONTEXT_PROPERTY) == null) {
+			System.setProperty(PersistenceFactorySingleton.PERSISTENCE_CONTEXT_PROPERTY,
+					PersistenceFactorySingleton.EMBEDDED_PERSISTENCE_CONTEXT_NAME);
+		}
+		try {
+			System.out.println("Iniciando...");
+			testCompraConcurrente(new ServiceImpl());
+			System.out.println("FIN.............");
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			logger.error("Error grave en la aplicación {}", ex.getMessage());
+		} finally {
+			PersistenceFactorySingleton.close();
+		}
+	}
+
+	/**
+	 * Todos los hilos compran un ticket cada vez del concierto 1 hasta agotarlo, mientras
+	 * otro hilo consulta los grupos.
+	 * 
+	 * @param implService implementación del servicio compartida por todos los hilos
+	 * @throws Exception error en test
+	 */
+	private static void testCompraConcurrente(Service implService) throws Exception {
+		System.out.println("Compra concurrente desde " + HILOS + " hilos con una única instancia del servicio");
+		Date fecha = dateformat.parse("01/11/2023 21:00");
+		AtomicInteger vendidos = new AtomicInteger();
+		AtomicInteger consultas = new AtomicInteger();
+		ConcurrentHashMap<String, AtomicInteger> errores = new ConcurrentHashMap<>();
+		CountDownLatch salida = new CountDownLatch(1);
+		CountDownLatch compradores = new CountDownLatch(HILOS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(HILOS + 1);
+		List<Future<?>> tareas = new ArrayList<>();
+		for (int i = 0; i < HILOS; i++) {
+			String nif = NIFS[i % NIFS.length];
+			tareas.add(executor.submit(() -> {
+				salida.await();
+				try {
+					while (true) {
+						try {
+							implService.comprar(fecha, nif, 1, 1);
+							vendidos.incrementAndGet();
+						} catch (IncidentException ex) {
+							if (ex.getError() == IncidentError.NOT_AVAILABLE_TICKETS) {
+								return null;
+							}
+							contar(errores, String.valueOf(ex.getError()));
+							return null;
+						} catch (Exception ex) {
+							contar(errores, ex.getClass().getSimpleName());
+							return null;
+						}
+					}
+				} finally {
+					compradores.countDown();
+				}
+			}));
+		}
+		tareas.add(executor.submit(() -> {
+			salida.await();
+			while (compradores.getCount() > 0) {
+				implService.consultarGrupos();
+				consultas.incrementAndGet();
+			}
+			return null;
+		}));
+
+		salida.countDown();
+		for (Future<?> tarea : tareas) {
+			tarea.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		if (errores.isEmpty()) {
+			System.out.println("\tOK sin errores inesperados (" + consultas.get() + " consultas concurrentes)");
+		} else {
+			System.out.println("\tERROR errores inesperados: " + errores);
+		}
+		if (vendidos.get() == TICKETS_INICIALES) {
+			System.out.println("\tOK se venden exactamente los " + TICKETS_INICIALES + " tickets disponibles");
+		} else {
+			System.out.println("\tERROR se venden " + vendidos.get() + " tickets de " + TICKETS_INICIALES);
+		}
+
+		EntityManager em = PersistenceFactorySingleton.getEntityManager();
+		try {
+			int tickets = em.createQuery("select c.tickets from Concierto c where c.idconcierto = 1", Integer.class)
+					.getSingleResult();
+			long compras = em.createQuery("select count(c) from Compra c where c.concierto.idconcierto = 1", Long.class)
+					.getSingleResult();
+			if (tickets == 0) {
+				System.out.println("\tOK el concierto queda sin tickets");
+			} else {
+				System.out.println("\tERROR el concierto queda con " + tickets + " tickets");
+			}
+			if (compras == COMPRAS_INICIALES + vendidos.get()) {
+				System.out.println("\tOK se inserta una compra por cada venta");
+			} else {
+				System.out.println("\tERROR hay " + compras + " compras para " + vendidos.get() + " ventas");
+			}
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Cuenta un error por tipo.
+	 * 
+	 * @param errores contadores por tipo de error
+	 * @param tipo tipo de error
+	 */
+	private static void contar(ConcurrentHashMap<String, AtomicInteger> errores, String tipo) {
+		errores.computeIfAbsent(tipo, k -> new AtomicInteger()).incrementAndGet();
+	}
+}
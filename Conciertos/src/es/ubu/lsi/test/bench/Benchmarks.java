@@ -0,0 +1,28 @@
+package es.ubu.lsi.test.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Lanzador de los benchmarks. Sin argumentos ejecuta todos los del paquete; con argumentos
+ * acepta las opciones de línea de comandos de JMH (por ejemplo <code>ServiceBenchmark.comprar -t 8</code>).
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class Benchmarks {
+
+	/**
+	 * Main.
+	 * 
+	 * @param args opciones de JMH
+	 * @throws Exception si falla la ejecución
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			new Runner(new OptionsBuilder().include(Benchmarks.class.getPackage().getName() + ".*").build()).run();
+		} else {
+			new Runner(new CommandLineOptions(args)).run();
+		}
+	}
+}
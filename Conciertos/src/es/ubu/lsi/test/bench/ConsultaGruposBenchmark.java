@@ -0,0 +1,100 @@
+package es.ubu.lsi.test.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.ubu.lsi.dao.EstrategiaCarga;
+import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.model.conciertos.ResumenGrupo;
+import es.ubu.lsi.service.PersistenceException;
+import es.ubu.lsi.service.conciertos.ServiceImpl;
+
+/**
+ * Compara las estrategias de carga de consultarGrupos (grafo de entidades en una consulta
+ * frente a una consulta por nivel) sobre los mismos datos de {@link EstadoDatos}, y con la
+ * consulta de solo lectura con proyecciones.
+ * 
+ * La diferencia crece con las compras por concierto, por ejemplo
+ * <code>ConsultaGruposBenchmark -p comprasPorConcierto=20,200</code>.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConsultaGruposBenchmark {
+
+	/**
+	 * Servicio con la estrategia de carga a medir.
+	 */
+	@State(Scope.Benchmark)
+	public static class Estrategia {
+
+		@Param({ "GRAFO", "POR_NIVELES" })
+		public EstrategiaCarga estrategia;
+
+		/** Servicio con la estrategia. */
+		ServiceImpl servicio;
+
+		/**
+		 * Crea el servicio. Depende de {@link EstadoDatos} para que los datos estén generados.
+		 * 
+		 * @param estado datos compartidos
+		 */
+		@Setup(Level.Trial)
+		public void iniciar(EstadoDatos estado) {
+			servicio = new ServiceImpl(estrategia);
+		}
+	}
+
+	/**
+	 * Consulta todos los grupos con sus conciertos, compras y clientes.
+	 * 
+	 * @param estrategia servicio con la estrategia de carga
+	 * @return grupos, para que JMH no elimine la consulta
+	 * @throws PersistenceException si la consulta falla
+	 */
+	@Benchmark
+	public List<Grupo> consultarGrupos(Estrategia estrategia) throws PersistenceException {
+		return estrategia.servicio.consultarGrupos();
+	}
+
+	/**
+	 * Consulta la primera página de grupos con sus conciertos, compras y clientes.
+	 * 
+	 * @param estrategia servicio con la estrategia de carga
+	 * @return grupos, para que JMH no elimine la consulta
+	 * @throws PersistenceException si la consulta falla
+	 */
+	@Benchmark
+	public List<Grupo> consultarPagina(Estrategia estrategia) throws PersistenceException {
+		return estrategia.servicio.consultarGrupos(0, 5);
+	}
+
+	/**
+	 * Consulta el resumen de solo lectura de los grupos con proyecciones en lugar de entidades.
+	 * 
+	 * @param estado datos compartidos
+	 * @return resumen, para que JMH no elimine la consulta
+	 * @throws PersistenceException si la consulta falla
+	 */
+	@Benchmark
+	public List<ResumenGrupo> consultarResumen(EstadoDatos estado) throws PersistenceException {
+		return estado.servicio.consultarResumenGrupos();
+	}
+}
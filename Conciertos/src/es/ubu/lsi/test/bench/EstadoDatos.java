@@ -0,0 +1,85 @@
+package es.ubu.lsi.test.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import es.ubu.lsi.service.PersistenceFactorySingleton;
+import es.ubu.lsi.service.conciertos.ServiceImpl;
+import es.ubu.lsi.test.util.GeneradorDatos;
+
+/**
+ * Estado compartido por los benchmarks: base de datos embebida poblada con el volumen
+ * indicado por los parámetros y una única instancia del servicio.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+@State(Scope.Benchmark)
+public class EstadoDatos {
+
+	/** Tickets de cada concierto, suficientes para no agotarse durante la medición. */
+	private static final int TICKETS = 1_000_000_000;
+
+	@Param({ "10" })
+	public int grupos;
+
+	@Param({ "20" })
+	public int conciertosPorGrupo;
+
+	@Param({ "1000" })
+	public int clientes;
+
+	@Param({ "20" })
+	public int comprasPorConcierto;
+
+	/**
+	 * Últimos grupos, reservados para el benchmark de desactivar (uno por hilo); el resto de
+	 * benchmarks no los usa.
+	 */
+	@Param({ "4" })
+	public int desactivables;
+
+	/** Servicio compartido por todos los hilos. */
+	ServiceImpl servicio;
+
+	/** Generador de los datos. */
+	GeneradorDatos datos;
+
+	/**
+	 * Selecciona la base de datos embebida y la puebla.
+	 */
+	@Setup(Level.Trial)
+	public void iniciar() {
+		if (desactivables < 0 || desactivables >= grupos) {
+			throw new IllegalArgumentException(
+					"Se necesita al menos un grupo no desactivable: grupos=" + grupos + ", desactivables=" + desactivables);
+		}
+		if (System.getProperty(PersistenceFactorySingleton.PERSISTENCE_CONTEXT_PROPERTY) == null) {
+			System.setProperty(PersistenceFactorySingleton.PERSISTENCE_CONTEXT_PROPERTY,
+					PersistenceFactorySingleton.EMBEDDED_PERSISTENCE_CONTEXT_NAME);
+		}
+		datos = new GeneradorDatos(grupos, conciertosPorGrupo, clientes, comprasPorConcierto, TICKETS);
+		datos.generar();
+		servicio = new ServiceImpl();
+	}
+
+	/**
+	 * Número de grupos que pueden usar las compras y consultas, de 1 a este valor.
+	 * 
+	 * @return grupos no reservados para desactivar
+	 */
+	int gruposActivos() {
+		return grupos - desactivables;
+	}
+
+	/**
+	 * Cierra la factoría de gestores de entidades.
+	 */
+	@TearDown(Level.Trial)
+	public void terminar() {
+		PersistenceFactorySingleton.close();
+	}
+}
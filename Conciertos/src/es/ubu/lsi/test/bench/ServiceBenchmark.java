@@ -0,0 +1,121 @@
+package es.ubu.lsi.test.bench;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import es.ubu.lsi.model.conciertos.Grupo;
+import es.ubu.lsi.service.PersistenceException;
+import es.ubu.lsi.test.util.GeneradorDatos;
+
+/**
+ * Rendimiento (operaciones por segundo) y latencia (percentiles) de las transacciones
+ * comprar, desactivar y consultarGrupos sobre la base de datos embebida.
+ * 
+ * El volumen de datos se ajusta con los parámetros de {@link EstadoDatos}, por ejemplo
+ * <code>-p grupos=100 -p comprasPorConcierto=200</code>, y la concurrencia con <code>-t</code>.
+ * Cada hilo de desactivar usa uno de los grupos reservados por <code>desactivables</code>, así que
+ * ese benchmark admite como mucho ese número de hilos.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ServiceBenchmark {
+
+	/**
+	 * Grupo propio de cada hilo que se desactiva en cada iteración, regenerado antes de cada una.
+	 */
+	@State(Scope.Thread)
+	public static class GrupoDesactivable {
+
+		/** PK del grupo. */
+		int grupo;
+
+		/**
+		 * Asigna al hilo uno de los grupos reservados, para que no desactive el de otro hilo.
+		 * 
+		 * @param estado datos compartidos
+		 * @param hilo índice del hilo
+		 */
+		@Setup(Level.Trial)
+		public void asignar(EstadoDatos estado, ThreadParams hilo) {
+			if (hilo.getThreadIndex() >= estado.desactivables) {
+				throw new IllegalStateException("Hay más hilos que grupos desactivables: " + hilo.getThreadCount()
+						+ " hilos, desactivables=" + estado.desactivables);
+			}
+			grupo = estado.grupos - hilo.getThreadIndex();
+		}
+
+		/**
+		 * Vuelve a crear los conciertos y compras del grupo, fuera de la medición.
+		 * 
+		 * @param estado datos compartidos
+		 */
+		@Setup(Level.Iteration)
+		public void regenerar(EstadoDatos estado) {
+			estado.datos.regenerarGrupo(grupo);
+		}
+	}
+
+	/**
+	 * Compra un ticket de un concierto y cliente aleatorios. Los conciertos no se agotan.
+	 * 
+	 * @param estado datos compartidos
+	 * @throws PersistenceException si la compra falla
+	 */
+	@Benchmark
+	public void comprar(EstadoDatos estado) throws PersistenceException {
+		ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+		// Los últimos grupos los usa el benchmark de desactivar
+		int grupo = 1 + aleatorio.nextInt(estado.gruposActivos());
+		int concierto = estado.datos.idConcierto(grupo, aleatorio.nextInt(estado.conciertosPorGrupo));
+		String nif = GeneradorDatos.nif(aleatorio.nextInt(estado.clientes));
+		estado.servicio.comprar(GeneradorDatos.fecha(concierto), nif, grupo, 1);
+	}
+
+	/**
+	 * Desactiva un grupo con todos sus conciertos y compras. Se mide una desactivación por
+	 * iteración, ya que preparar el grupo antes de cada invocación de una medición continua
+	 * falsea los tiempos de operaciones de milisegundos.
+	 * 
+	 * @param estado datos compartidos
+	 * @param desactivable grupo del hilo regenerado para esta iteración
+	 * @throws PersistenceException si la desactivación falla
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public void desactivar(EstadoDatos estado, GrupoDesactivable desactivable) throws PersistenceException {
+		estado.servicio.desactivar(desactivable.grupo);
+	}
+
+	/**
+	 * Consulta todos los grupos con sus conciertos, compras y clientes.
+	 * 
+	 * @param estado datos compartidos
+	 * @return grupos, para que JMH no elimine la consulta
+	 * @throws PersistenceException si la consulta falla
+	 */
+	@Benchmark
+	public List<Grupo> consultarGrupos(EstadoDatos estado) throws PersistenceException {
+		return estado.servicio.consultarGrupos();
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * JMH benchmarks of the service layer over the embedded database.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ * @since 1.0
+ */
+package es.ubu.lsi.test.bench;
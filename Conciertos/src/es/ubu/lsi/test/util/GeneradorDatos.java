@@ -0,0 +1,273 @@
+package es.ubu.lsi.test.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.ubu.lsi.dao.IndiceConciertos;
+import es.ubu.lsi.dao.RegistroAgotados;
+import es.ubu.lsi.service.PersistenceFactorySingleton;
+
+/**
+ * Utilidad para poblar la base de datos embebida con un volumen de datos parametrizable,
+ * para pruebas de carga y benchmarks.
+ * 
+ * Borra todas las filas de las tablas y genera grupos, conciertos, clientes y compras con
+ * claves predecibles: el grupo g (desde 1) tiene los conciertos
+ * (g - 1) * conciertosPorGrupo + 1 ... g * conciertosPorGrupo, y el concierto k se celebra
+ * k horas después de {@link #FECHA_BASE}. Usa la misma conexión que la unidad de persistencia,
+ * por lo que no se debe usar contra la base de datos de producción.
+ * 
+ * @author Eduardo Manuel Cabeza Lopez
+ */
+public class GeneradorDatos {
+
+	/** Logger. */
+	private static final Logger logger = LoggerFactory.getLogger(GeneradorDatos.class);
+
+	/** Fecha del primer concierto. */
+	public static final long FECHA_BASE = Timestamp.valueOf("2030-01-01 20:00:00").getTime();
+
+	/** Filas por lote JDBC. */
+	private static final int LOTE = 500;
+
+	private static final long HORA = 3600_000L;
+
+	private final int grupos;
+	private final int conciertosPorGrupo;
+	private final int clientes;
+	private final int comprasPorConcierto;
+	private final int ticketsPorConcierto;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param grupos Número de grupos
+	 * @param conciertosPorGrupo Conciertos de cada grupo
+	 * @param clientes Número de clientes
+	 * @param comprasPorConcierto Compras previas de cada concierto
+	 * @param ticketsPorConcierto Tickets disponibles de cada concierto
+	 */
+	public GeneradorDatos(int grupos, int conciertosPorGrupo, int clientes, int comprasPorConcierto,
+			int ticketsPorConcierto) {
+		this.grupos = grupos;
+		this.conciertosPorGrupo = conciertosPorGrupo;
+		this.clientes = clientes;
+		this.comprasPorConcierto = comprasPorConcierto;
+		this.ticketsPorConcierto = ticketsPorConcierto;
+	}
+
+	/**
+	 * NIF del cliente i (desde 0).
+	 * 
+	 * @param i número de cliente
+	 * @return NIF
+	 */
+	public static String nif(int i) {
+		return String.format("%08dC", i);
+	}
+
+	/**
+	 * Fecha del concierto con la PK indicada.
+	 * 
+	 * @param idConcierto PK del concierto
+	 * @return fecha
+	 */
+	public static Date fecha(int idConcierto) {
+		return new Timestamp(FECHA_BASE + idConcierto * HORA);
+	}
+
+	/**
+	 * PK del concierto c (desde 0) del grupo indicado.
+	 * 
+	 * @param grupo PK del grupo
+	 * @param c número de concierto dentro del grupo
+	 * @return PK del concierto
+	 */
+	public int idConcierto(int grupo, int c) {
+		return (grupo - 1) * conciertosPorGrupo + c + 1;
+	}
+
+	public int getGrupos() {
+		return grupos;
+	}
+
+	public int getConciertosPorGrupo() {
+		return conciertosPorGrupo;
+	}
+
+	public int getClientes() {
+		return clientes;
+	}
+
+	/**
+	 * Borra todos los datos y genera los nuevos. Vacía las cachés, que quedarían obsoletas.
+	 * Reinicia la secuencia SEQ_COMPRA, por lo que hay que llamarlo antes de realizar compras
+	 * en esta máquina virtual (los bloques de PK ya reservados quedarían duplicados).
+	 */
+	public void generar() {
+		long inicio = System.currentTimeMillis();
+		ejecutar(con -> {
+			try (Statement st = con.createStatement()) {
+				st.executeUpdate("DELETE FROM COMPRA");
+				st.executeUpdate("DELETE FROM CONCIERTO_FRACCION");
+				st.executeUpdate("DELETE FROM CONCIERTO");
+				st.executeUpdate("DELETE FROM GRUPO");
+				st.executeUpdate("DELETE FROM CLIENTE");
+			}
+			try (PreparedStatement ps = con.prepareStatement("INSERT INTO CLIENTE VALUES (?, ?, ?, ?, ?, ?)")) {
+				for (int i = 0; i < clientes; i++) {
+					ps.setString(1, nif(i));
+					ps.setString(2, "Nombre" + i);
+					ps.setString(3, "Apellidos" + i);
+					ps.setString(4, "C/Mayor " + i);
+					ps.setString(5, "09001");
+					ps.setString(6, "Burgos");
+					agregar(ps, i);
+				}
+				ps.executeBatch();
+			}
+			try (PreparedStatement ps = con.prepareStatement("INSERT INTO GRUPO VALUES (?, ?, ?, 1)")) {
+				for (int g = 1; g <= grupos; g++) {
+					ps.setInt(1, g);
+					ps.setString(2, "Grupo" + g);
+					ps.setString(3, "Rock");
+					agregar(ps, g);
+				}
+				ps.executeBatch();
+			}
+			for (int g = 1; g <= grupos; g++) {
+				insertarConciertosYCompras(con, g);
+			}
+			// Las compras nuevas empiezan detrás de las generadas
+			try (Statement st = con.createStatement()) {
+				st.executeUpdate("ALTER SEQUENCE SEQ_COMPRA RESTART WITH "
+						+ ((long) grupos * conciertosPorGrupo * comprasPorConcierto + 1));
+			}
+		});
+		vaciarCaches();
+		logger.info("Generados {} grupos, {} conciertos, {} clientes y {} compras en {} ms", grupos,
+				grupos * conciertosPorGrupo, clientes, (long) grupos * conciertosPorGrupo * comprasPorConcierto,
+				System.currentTimeMillis() - inicio);
+	}
+
+	/**
+	 * Vuelve a crear los conciertos y compras de un grupo y lo reactiva, para repetir su desactivación.
+	 * 
+	 * @param grupo PK del grupo
+	 */
+	public void regenerarGrupo(int grupo) {
+		ejecutar(con -> {
+			try (PreparedStatement ps = con.prepareStatement("DELETE FROM COMPRA WHERE IDCONCIERTO IN "
+					+ "(SELECT IDCONCIERTO FROM CONCIERTO WHERE IDGRUPO = ?)")) {
+				ps.setInt(1, grupo);
+				ps.executeUpdate();
+			}
+			try (PreparedStatement ps = con.prepareStatement("DELETE FROM CONCIERTO_FRACCION WHERE IDCONCIERTO IN "
+					+ "(SELECT IDCONCIERTO FROM CONCIERTO WHERE IDGRUPO = ?)")) {
+				ps.setInt(1, grupo);
+				ps.executeUpdate();
+			}
+			try (PreparedStatement ps = con.prepareStatement("DELETE FROM CONCIERTO WHERE IDGRUPO = ?")) {
+				ps.setInt(1, grupo);
+				ps.executeUpdate();
+			}
+			try (PreparedStatement ps = con.prepareStatement("UPDATE GRUPO SET ACTIVO = 1 WHERE IDGRUPO = ?")) {
+				ps.setInt(1, grupo);
+				ps.executeUpdate();
+			}
+			insertarConciertosYCompras(con, grupo);
+		});
+		vaciarCaches();
+	}
+
+	/**
+	 * Inserta los conciertos de un grupo y sus compras.
+	 */
+	private void insertarConciertosYCompras(Connection con, int g) throws SQLException {
+		try (PreparedStatement ps = con
+				.prepareStatement("INSERT INTO CONCIERTO VALUES (?, ?, 'Madrid', ?, ?, 30, ?, 0)")) {
+			for (int c = 0; c < conciertosPorGrupo; c++) {
+				int id = idConcierto(g, c);
+				ps.setInt(1, id);
+				ps.setString(2, "Concierto" + id);
+				ps.setTimestamp(3, (Timestamp) fecha(id));
+				ps.setInt(4, ticketsPorConcierto);
+				ps.setInt(5, g);
+				agregar(ps, c);
+			}
+			ps.executeBatch();
+		}
+		try (PreparedStatement ps = con.prepareStatement("INSERT INTO COMPRA VALUES (?, ?, ?, 1)")) {
+			int n = 0;
+			for (int c = 0; c < conciertosPorGrupo; c++) {
+				int id = idConcierto(g, c);
+				for (int k = 0; k < comprasPorConcierto; k++) {
+					ps.setInt(1, (id - 1) * comprasPorConcierto + k + 1);
+					ps.setString(2, nif((id * 31 + k) % clientes));
+					ps.setInt(3, id);
+					agregar(ps, n++);
+				}
+			}
+			ps.executeBatch();
+		}
+	}
+
+	/**
+	 * Añade la fila al lote y lo envía cada {@link #LOTE} filas.
+	 */
+	private static void agregar(PreparedStatement ps, int fila) throws SQLException {
+		ps.addBatch();
+		if ((fila + 1) % LOTE == 0) {
+			ps.executeBatch();
+		}
+	}
+
+	/**
+	 * Trabajo JDBC sobre la conexión de la unidad de persistencia.
+	 */
+	@FunctionalInterface
+	private interface Trabajo {
+		void ejecutar(Connection con) throws SQLException;
+	}
+
+	/**
+	 * Ejecuta el trabajo en una transacción con la conexión de la unidad de persistencia.
+	 */
+	private static void ejecutar(Trabajo trabajo) {
+		EntityManager em = PersistenceFactorySingleton.getEntityManager();
+		try {
+			em.getTransaction().begin();
+			em.unwrap(Session.class).doWork(trabajo::ejecutar);
+			em.getTransaction().commit();
+		} finally {
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+
+	/**
+	 * Vacía la caché de segundo nivel, el índice de conciertos y el registro de agotados.
+	 */
+	private static void vaciarCaches() {
+		EntityManager em = PersistenceFactorySingleton.getEntityManager();
+		try {
+			em.getEntityManagerFactory().getCache().evictAll();
+		} finally {
+			em.close();
+		}
+		IndiceConciertos.getInstance().vaciar();
+		RegistroAgotados.getInstance().vaciar();
+	}
+}